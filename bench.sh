@@ -0,0 +1,26 @@
+#!/bin/bash
+#
+# Builds the analyser and the JMH benchmarks in bench/ and runs them.
+# JMH_HOME must contain the JMH jars (jmh-core, jmh-generator-annprocess,
+# jopt-simple, commons-math3), so that no download is needed. Results are
+# written to bench-results.json; arguments are passed on to JMH, e.g.
+#
+#   ./bench.sh MergeBenchmark -p domain=polka
+#
+
+JAVA_HOME=/opt/java-latest
+APRON_HOME=/home/sae/apron
+JMH_HOME=${JMH_HOME:-$HOME/jmh}
+
+base=$(pwd)
+jmh=$(ls $JMH_HOME/*.jar | tr '\n' ':')
+export CLASSPATH=.:$base/soot-2.5.0.jar:$APRON_HOME/japron/apron.jar:$APRON_HOME/japron/gmp.jar:$base/bin:$jmh$base/bench-bin
+export LD_LIBRARY_PATH=$APRON_HOME/box:$APRON_HOME/octagons:$APRON_HOME/newpolka:$APRON_HOME/apron:$APRON_HOME/japron:$APRON_HOME/japron/gmp
+
+mkdir -p bin bench-bin
+$JAVA_HOME/bin/javac -d bin src/*.java || exit 1
+$JAVA_HOME/bin/javac -d bin src/ch/ethz/sae/*.java || exit 1
+# the JMH annotation processor generates the harness into bench-bin
+$JAVA_HOME/bin/javac -d bench-bin bench/ch/ethz/sae/*.java || exit 1
+
+$JAVA_HOME/bin/java org.openjdk.jmh.Main -rf json -rff bench-results.json "$@"
@@ -0,0 +1,63 @@
+package ch.ethz.sae;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soot.SootClass;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+
+/* The fixpoint computation (either engine and narrowing) of the largest method of a class. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class AnalysisBenchmark {
+
+	@Param({ "Test1" })
+	public String className;
+
+	@Param({ "box", "oct", "polka" })
+	public String domain;
+
+	@Param({ "worklist", "wto" })
+	public String engine;
+
+	private SootClass c;
+	private UnitGraph graph;
+	private Config config = new Config();
+
+	@Setup
+	public void setUp() {
+		c = Fixtures.load(className);
+		config.wto = engine.equals("wto");
+		graph = new BriefUnitGraph(Fixtures.largestMethod(c).getActiveBody());
+	}
+
+	@TearDown
+	public void tearDown() {
+		Verifier.resetApplicationClasses();
+	}
+
+	@Benchmark
+	public Analysis fixpoint() {
+		Analysis analysis = new Analysis(graph, c, Domain.parse(domain));
+		analysis.configure(config);
+		analysis.run();
+		return analysis;
+	}
+}
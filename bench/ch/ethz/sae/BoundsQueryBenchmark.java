@@ -0,0 +1,75 @@
+package ch.ethz.sae;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soot.Body;
+import soot.SootClass;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.internal.JInvokeStmt;
+import soot.jimple.internal.JVirtualInvokeExpr;
+import soot.toolkits.graph.BriefUnitGraph;
+import apron.Abstract1;
+
+/* The check of a sendJob argument against the size of a PrinterArray. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BoundsQueryBenchmark {
+
+	/* A class whose largest method calls sendJob. */
+	@Param({ "Test1" })
+	public String className;
+
+	@Param({ "1", "100" })
+	public int size;
+
+	private Analysis analysis;
+	private Value arg;
+	private Abstract1 callState;
+
+	@Setup
+	public void setUp() {
+		SootClass c = Fixtures.load(className);
+		Body body = Fixtures.largestMethod(c).getActiveBody();
+		analysis = new Analysis(new BriefUnitGraph(body), c);
+		analysis.configure(new Config());
+		analysis.run();
+
+		for (Unit u : body.getUnits()) {
+			if (Analysis.isResourceCall(u)) {
+				JVirtualInvokeExpr call = (JVirtualInvokeExpr) ((JInvokeStmt) u).getInvokeExpr();
+				arg = call.getArg(0);
+				callState = analysis.stateTracer.get(call);
+				return;
+			}
+		}
+		throw new IllegalStateException(className + " does not call sendJob");
+	}
+
+	@TearDown
+	public void tearDown() {
+		Verifier.resetApplicationClasses();
+	}
+
+	@Benchmark
+	public boolean isWithinBounds() {
+		return Verifier.isWithinBounds(arg, size, callState, analysis.man);
+	}
+}
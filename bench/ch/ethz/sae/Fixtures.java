@@ -0,0 +1,30 @@
+package ch.ethz.sae;
+
+import soot.SootClass;
+import soot.SootMethod;
+
+/* Setup shared by the benchmarks. */
+class Fixtures {
+
+	/* Load a test class with the default settings of the verifier. */
+	static SootClass load(String className) {
+		Verifier.configure(new Config());
+		SootClass c = Verifier.loadClass(className);
+		for (SootMethod method : c.getMethods()) {
+			method.retrieveActiveBody();
+		}
+		return c;
+	}
+
+	/* The method of the class with the most Jimple statements. */
+	static SootMethod largestMethod(SootClass c) {
+		SootMethod largest = null;
+		for (SootMethod method : c.getMethods()) {
+			if (largest == null
+					|| method.getActiveBody().getUnits().size() > largest.getActiveBody().getUnits().size()) {
+				largest = method;
+			}
+		}
+		return largest;
+	}
+}
@@ -0,0 +1,79 @@
+package ch.ethz.sae;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soot.Body;
+import soot.SootClass;
+import soot.Unit;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.LoopNestTree;
+
+/*
+ * Analysis.merge on the states of a finished analysis: a plain join, and
+ * at a loop head, where every call after the widening delay widens.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class MergeBenchmark {
+
+	/* A class whose largest method has a loop. */
+	@Param({ "Test1" })
+	public String className;
+
+	@Param({ "box", "oct", "polka" })
+	public String domain;
+
+	private Analysis analysis;
+	private Unit entry, head;
+	private AWrapper atEntry, atHead;
+
+	@Setup
+	public void setUp() {
+		SootClass c = Fixtures.load(className);
+		Body body = Fixtures.largestMethod(c).getActiveBody();
+		analysis = new Analysis(new BriefUnitGraph(body), c, Domain.parse(domain));
+		analysis.configure(new Config());
+		analysis.run();
+
+		entry = body.getUnits().getFirst();
+		head = new LoopNestTree(body).first().getHead();
+		atEntry = analysis.getFlowBefore(entry);
+		atHead = analysis.getFlowBefore(head);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Verifier.resetApplicationClasses();
+	}
+
+	@Benchmark
+	public AWrapper join() {
+		AWrapper merged = analysis.emptyFlow();
+		analysis.merge(entry, atEntry, atHead, merged);
+		return merged;
+	}
+
+	@Benchmark
+	public AWrapper widen() {
+		AWrapper merged = analysis.emptyFlow();
+		analysis.merge(head, atEntry, atHead, merged);
+		return merged;
+	}
+}
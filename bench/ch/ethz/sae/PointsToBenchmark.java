@@ -0,0 +1,54 @@
+package ch.ethz.sae;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soot.SootClass;
+import soot.jimple.spark.pag.PAG;
+
+/* Resolving the allocation sites of a class with Spark and with LocalAllocationSites. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PointsToBenchmark {
+
+	@Param({ "Test1" })
+	public String className;
+
+	private SootClass c;
+
+	@Setup
+	public void setUp() {
+		c = Fixtures.load(className);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Verifier.resetApplicationClasses();
+	}
+
+	@Benchmark
+	public PAG spark() {
+		return Verifier.doPointsToAnalysis(c.getMethods());
+	}
+
+	@Benchmark
+	public AllocationIndex local() {
+		return new AllocationIndex(c, null);
+	}
+}
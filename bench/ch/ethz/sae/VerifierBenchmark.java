@@ -0,0 +1,46 @@
+package ch.ethz.sae;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A whole verification of a test class: loading, points-to analysis, the
+ * fixpoints of all methods and the checks. Library classes stay loaded
+ * between invocations, as in the verification server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class VerifierBenchmark {
+
+	@Param({ "Test1", "Test5", "Test10", "Test20", "Test40" })
+	public String className;
+
+	@Setup
+	public void setUp() {
+		Verifier.configure(new Config());
+	}
+
+	@Benchmark
+	public Verdict verify() {
+		try {
+			return Verifier.verifySingle(className);
+		} finally {
+			Verifier.resetApplicationClasses();
+		}
+	}
+}
@@ -1,14 +1,26 @@
 package ch.ethz.sae;
+import java.util.concurrent.atomic.AtomicLong;
+
 import apron.*;
 
 public class AWrapper {
 
+	private static final AtomicLong versions = new AtomicLong();
+
 	Abstract1 elem;
 	Manager man;
 	Object statement;
 
+	/*
+	 * Stamp of the state held. It changes whenever a different state is set
+	 * and is shared by copies, so equal stamps mean the same unchanged state.
+	 * States held by a wrapper must therefore never be modified in place.
+	 */
+	long version;
+
 	public AWrapper(Abstract1 e) {
 		elem = e;
+		version = versions.incrementAndGet();
 	}
 
 	public Abstract1 get() {
@@ -16,7 +28,10 @@ public class AWrapper {
 	}
 
 	public void set(Abstract1 e) {
-		elem = e;
+		if (e != elem) {
+			elem = e;
+			version = versions.incrementAndGet();
+		}
 	}
 
 	public Object getStatement() {
@@ -29,12 +44,22 @@ public class AWrapper {
 
 	public void copy(AWrapper src) {
 		this.elem = src.get();
+		this.version = src.version;
 		this.statement = src.statement;
 	}
 
 	public boolean equals(Object o) {
-		Abstract1 t = ((AWrapper) o).get();
+		AWrapper other = (AWrapper) o;
+		Abstract1 t = other.get();
+
+		// an unchanged state needs no comparison in Apron
+		if (version == other.version || elem == t) {
+			Metrics.skippedComparisons.incrementAndGet();
+			return true;
+		}
 		try {
+			Metrics.nativeComparisons.incrementAndGet();
+			Metrics.count(Metrics.ApronOp.IS_INCLUDED);
 			return elem.isIncluded(man, t);
 		} catch (ApronException e) {
 			System.err.println("isEqual failed");
@@ -0,0 +1,126 @@
+package ch.ethz.sae;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import soot.Local;
+import soot.PointsToSet;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.IntConstant;
+import soot.jimple.InvokeExpr;
+import soot.jimple.internal.JInvokeStmt;
+import soot.jimple.internal.JSpecialInvokeExpr;
+import soot.jimple.internal.JVirtualInvokeExpr;
+import soot.jimple.spark.pag.AllocNode;
+import soot.jimple.spark.pag.Node;
+import soot.jimple.spark.pag.PAG;
+import soot.jimple.spark.sets.P2SetVisitor;
+import soot.jimple.spark.sets.PointsToSetInternal;
+import soot.toolkits.graph.BriefUnitGraph;
+
+/*
+ * Maps every PrinterArray allocation site (its NewExpr) of a class to the
+ * size given to its constructor, and every sendJob call to the sites its
+ * receiver may point to. Built once per class, either from Spark or, when
+ * pointsTo is null, from LocalAllocationSites.
+ */
+public class AllocationIndex {
+
+	/* Collects the allocation nodes of a points-to set. */
+	private static class MyP2SetVisitor extends P2SetVisitor {
+
+		final List<Node> nodes = new ArrayList<Node>();
+
+		@Override
+		public void visit(Node arg0) {
+			nodes.add(arg0);
+		}
+	}
+
+	private final PAG pointsTo;
+	private final HashMap<Object, Integer> siteToSize = new HashMap<Object, Integer>();
+	private final HashMap<Unit, Collection<?>> receiverSites = new HashMap<Unit, Collection<?>>();
+
+	/*
+	 * Whether a receiver without known sites may still be out of bounds, as
+	 * when Spark runs without the JDK bodies it could have flowed through.
+	 */
+	boolean unresolvedUnsafe = false;
+
+	public AllocationIndex(SootClass c, PAG pointsTo) {
+		this.pointsTo = pointsTo;
+
+		for (SootMethod method : c.getMethods()) {
+			LocalAllocationSites local = pointsTo == null
+					? new LocalAllocationSites(new BriefUnitGraph(method.retrieveActiveBody())) : null;
+
+			for (Unit u : method.retrieveActiveBody().getUnits()) {
+				if (!(u instanceof JInvokeStmt)) {
+					continue;
+				}
+				InvokeExpr e = ((JInvokeStmt) u).getInvokeExpr();
+
+				if (e instanceof JVirtualInvokeExpr && e.getMethodRef().name().equals(Analysis.functionName)) {
+					Local base = (Local) ((JVirtualInvokeExpr) e).getBase();
+					receiverSites.put(u, local == null ? sitesOf(base) : local.sitesOf(base, u));
+				} else if (e instanceof JSpecialInvokeExpr
+						&& e.getMethodRef().declaringClass().getName().equals(Analysis.resourceArrayName)
+						&& e.getArgCount() == 1) {
+					Value val = e.getArg(0);
+					// a size we do not know is treated as empty, so that every access may be out of bounds
+					int size = val instanceof IntConstant ? ((IntConstant) val).value : 0;
+
+					Local base = (Local) ((JSpecialInvokeExpr) e).getBase();
+					for (Object site : local == null ? sitesOf(base) : local.sitesOf(base, u)) {
+						Integer known = siteToSize.get(site);
+						if (known == null || size < known) {
+							siteToSize.put(site, size);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/* The allocation sites Spark finds for the given local. */
+	private List<Object> sitesOf(Local local) {
+		PointsToSet set = pointsTo.reachingObjects(local);
+		MyP2SetVisitor visitor = new MyP2SetVisitor();
+		if (set instanceof PointsToSetInternal) {
+			((PointsToSetInternal) set).forall(visitor);
+		}
+
+		List<Object> sites = new ArrayList<Object>();
+		for (Node node : visitor.nodes) {
+			if (node instanceof AllocNode) {
+				sites.add(((AllocNode) node).getNewExpr());
+			}
+		}
+		return sites;
+	}
+
+	/* The PrinterArray allocation sites of the class the receiver of a sendJob call may point to. */
+	public List<Object> resourceSitesOf(Unit call) {
+		List<Object> sites = new ArrayList<Object>();
+		Collection<?> receivers = receiverSites.get(call);
+		if (receivers == null) {
+			return sites;
+		}
+		for (Object site : receivers) {
+			if (siteToSize.containsKey(site)) {
+				sites.add(site);
+			}
+		}
+		return sites;
+	}
+
+	/* Size of the PrinterArray allocated at the given site. */
+	public int sizeOf(Object site) {
+		return siteToSize.get(site);
+	}
+}
@@ -1,8 +1,15 @@
 package ch.ethz.sae;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import apron.Abstract1;
 import apron.ApronException;
@@ -11,39 +18,29 @@ import apron.Interval;
 import apron.Manager;
 import apron.MpqScalar;
 import apron.Polka;
-import apron.Texpr1CstNode;
-import apron.Texpr1Intern;
-import apron.Texpr1Node;
-import apron.Texpr1VarNode;
 // new imports
 import apron.*;
 
-import soot.ArrayType;
-import soot.DoubleType;
+import soot.Body;
+import soot.ByteType;
+import soot.IntType;
 import soot.IntegerType;
 import soot.Local;
-import soot.RefType;
 import soot.SootClass;
+import soot.ShortType;
 import soot.SootField;
+import soot.Type;
 import soot.Unit;
+import soot.UnitBox;
 import soot.Value;
-import soot.jimple.DefinitionStmt;
+import soot.ValueBox;
 import soot.jimple.IfStmt;
 import soot.jimple.IntConstant;
 import soot.jimple.InvokeExpr;
 import soot.jimple.Stmt;
-import soot.jimple.internal.AbstractBinopExpr;
-import soot.jimple.internal.JArrayRef;
-import soot.jimple.internal.JEqExpr;
-import soot.jimple.internal.JGeExpr;
-import soot.jimple.internal.JGtExpr;
-import soot.jimple.internal.JIfStmt;
-import soot.jimple.internal.JInstanceFieldRef;
-import soot.jimple.internal.JLeExpr;
-import soot.jimple.internal.JLtExpr;
-import soot.jimple.internal.JNeExpr;
 import soot.jimple.internal.JimpleLocal;
 import soot.jimple.toolkits.annotation.logic.Loop;
+import soot.toolkits.graph.BriefBlockGraph;
 import soot.toolkits.graph.LoopNestTree;
 import soot.toolkits.graph.UnitGraph;
 import soot.toolkits.scalar.ForwardBranchedFlowAnalysis;
@@ -56,8 +53,68 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 
 	private static final int WIDENING_THRESHOLD = 6;
 
+	/*
+	 * Keep only the states the checkers read, the units in retained, once
+	 * the fixpoint is reached.
+	 */
+	private boolean sparse = false;
+	private Set<Unit> retained;
+
+	/* Distinct states held once the fixpoint is reached and after dropping the others, as by heldStates. */
+	public int fixpointStates = 0, keptStates = 0;
+
+	/* Iterate over basic blocks, keeping states only at block entries. */
+	private boolean useBlocks = false;
+	private BlockEngine blockEngine;
+
+	/* Iterate in weak topological order instead of with the worklist of Soot. */
+	private boolean useWto = false;
+	WtoEngine wtoEngine;
+
+	private int wideningDelay = WIDENING_THRESHOLD;
+	private int narrowingSteps = 0;
+	private Lincons1[] thresholds; // null to widen without thresholds
+
+	/* Transfer functions applied and native states allocated by this analysis. */
+	public int transfers = 0;
+	public int allocations = 0;
+
+	/* Limits of this analysis, null for none. */
+	private Budget budget;
+
+	/* Native states alive, tracked for --stats and --metrics, else null. */
+	NativeStates natives;
+
+	/*
+	 * Most native states this analysis may hold, 0 for no cap. The held
+	 * states are counted whenever another tenth of the cap has been
+	 * allocated.
+	 */
+	private int nativeCap = 0;
+	private int nextCapCheck = 0;
+
+	/* The state of every unit not reached yet. */
+	private Abstract1 bottom;
+
+	/* Merges at loop heads that widened. */
+	public int widenings = 0;
+
 	private HashMap<Unit, Counter> loopHeads, backJumps;
 
+	/* The transfer function of every unit, compiled before the fixpoint. */
+	private HashMap<Unit, Transfer> compiled;
+
+	/*
+	 * Loop head invariants of an earlier run, joined into the loop heads to
+	 * warm-start the fixpoint, and those of this run, when kept.
+	 */
+	private HashMap<Unit, Abstract1> seeds = new HashMap<Unit, Abstract1>();
+	private boolean keepInvariants = false;
+	public Map<String, Map<String, Interval>> invariants;
+
+	/* Whether every seeded loop head kept its seed after the fixpoint. */
+	boolean seedsHeld = true;
+
 	private void recordIntLocalVars() {
 
 		Chain<Local> locals = g.getBody().getLocals();
@@ -65,7 +122,7 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		Iterator<Local> it = locals.iterator();
 		while (it.hasNext()) {
 			JimpleLocal next = (JimpleLocal) it.next();
-			if (next.getType() instanceof IntegerType)
+			if (next.getType() instanceof IntegerType && isTracked(next.getName()))
 				count += 1;
 		}
 
@@ -76,7 +133,7 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		while (it.hasNext()) {
 			JimpleLocal next = (JimpleLocal) it.next();
 			String name = next.getName();
-			if (next.getType() instanceof IntegerType)
+			if (next.getType() instanceof IntegerType && isTracked(name))
 				local_ints[i++] = name;
 		}
 	}
@@ -89,7 +146,7 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		Iterator<SootField> it = ifields.iterator();
 		while (it.hasNext()) {
 			SootField next = it.next();
-			if (next.getType() instanceof IntegerType)
+			if (next.getType() instanceof IntegerType && isTracked(next.getName()))
 				count += 1;
 		}
 
@@ -100,11 +157,20 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		while (it.hasNext()) {
 			SootField next = it.next();
 			String name = next.getName();
-			if (next.getType() instanceof IntegerType)
+			if (next.getType() instanceof IntegerType && isTracked(name))
 				class_ints[i++] = name;
 		}
 	}
 
+	private boolean isTracked(String name) {
+		return tracked == null || tracked.contains(name);
+	}
+
+	/* Whether the value is a local with a dimension in the environment. */
+	public boolean tracks(Value val) {
+		return val instanceof Local && env.hasVar(((Local) val).getName());
+	}
+
 	/* Build an environment with integer variables. */
 	public void buildEnvironment() {
 
@@ -128,186 +194,422 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 
 	/* Instantiate a domain. */
 	private void instantiateDomain() {
-		man = new Polka(true);
+		man = domain.manager();
 	}
 
 	/* === Constructor === */
 	public Analysis(UnitGraph g, SootClass jc) {
-		super(g);
+		this(g, jc, Domain.POLKA);
+	}
+
+	public Analysis(UnitGraph g, SootClass jc, Domain domain) {
+		this(g, jc, domain, null);
+	}
+
+	/*
+	 * Analysis whose environment only has the given variables, all integer
+	 * variables of the method and class if tracked is null.
+	 */
+	public Analysis(UnitGraph g, SootClass jc, Domain domain, Set<String> tracked) {
+		this(new MethodGraphs(g, new LoopNestTree(g.getBody()), null), jc, domain, tracked);
+	}
 
+	/* Analysis over graphs built beforehand, as the analyses run in parallel need. */
+	public Analysis(MethodGraphs graphs, SootClass jc, Domain domain, Set<String> tracked) {
+		super(graphs.units);
+
+		UnitGraph g = graphs.units;
+		this.graphs = graphs;
 		this.g = g;
 		this.jclass = jc;
+		this.domain = domain;
+		this.tracked = tracked;
 
 		buildEnvironment();
 		instantiateDomain();
 
 		loopHeads = new HashMap<Unit, Counter>();
 		backJumps = new HashMap<Unit, Counter>();
-		for (Loop l : new LoopNestTree(g.getBody())) {
+		for (Loop l : graphs.loops) {
 			loopHeads.put(l.getHead(), new Counter(0));
 			backJumps.put(l.getBackJumpStmt(), new Counter(0));
 		}
 
 		stateTracer = new HashMap<JVirtualInvokeExpr, Abstract1>();
 
+		compiled = new HashMap<Unit, Transfer>();
+		for (Unit u : g.getBody().getUnits()) {
+			compiled.put(u, Transfer.compile(u, env));
+		}
 	}
 
-	void run() {
-		doAnalysis();
-	}
-
-	static void unhandled(String what) {
-		System.err.println("Can't handle " + what);
+	/* Take the settings of a run. */
+	public void configure(Config config) {
+		useBlocks = config.blocks;
+		useWto = config.wto;
+		sparse = config.sparse;
+		wideningDelay = config.wideningDelay;
+		narrowingSteps = config.narrowingSteps;
+		if (config.thresholds) {
+			thresholds = harvestThresholds();
+		}
+		keepInvariants = config.incrementalDir != null;
+		budget = Budget.of(config);
+		if (config.stats || config.metricsFile != null) {
+			natives = new NativeStates(man);
+		}
+		nativeCap = config.nativeCap;
+		nextCapCheck = Math.max(1, nativeCap / 10);
 	}
 
+	/*
+	 * Seed the loop heads with the boxes of an earlier run, keyed as by
+	 * IncrementalStore.headKeys. Returns the number of heads seeded.
+	 */
+	public int seed(Map<String, Map<String, Interval>> boxes) {
+		Map<Unit, String> keys = IncrementalStore.headKeys(loopHeads.keySet(), g.getBody());
+		for (Map.Entry<Unit, String> head : keys.entrySet()) {
+			Map<String, Interval> box = boxes.get(head.getValue());
+			if (box == null) {
+				continue;
+			}
 
-	private void handleIf(AbstractBinopExpr eqExpr, Abstract1 in, AWrapper ow,
-			AWrapper ow_branchout) throws ApronException {
+			// variables missing from the box are left unconstrained
+			List<String> vars = new ArrayList<String>();
+			List<Interval> bounds = new ArrayList<Interval>();
+			for (Map.Entry<String, Interval> var : box.entrySet()) {
+				if (env.hasVar(var.getKey())) {
+					vars.add(var.getKey());
+					bounds.add(var.getValue());
+				}
+			}
+			try {
+				seeds.put(head.getKey(), allocated(new Abstract1(man, env, vars.toArray(new String[vars.size()]),
+						bounds.toArray(new Interval[bounds.size()]))));
+			} catch (ApronException e) {
+				e.printStackTrace();
+			}
+		}
+		return seeds.size();
+	}
 
-		Value left = eqExpr.getOp1();
-		Value right = eqExpr.getOp2();
+	/* The interval of every variable at the reachable loop heads. */
+	private Map<String, Map<String, Interval>> loopHeadInvariants() throws ApronException {
+		Map<String, Map<String, Interval>> boxes = new HashMap<String, Map<String, Interval>>();
+		Map<Unit, String> keys = IncrementalStore.headKeys(loopHeads.keySet(), g.getBody());
+		for (Map.Entry<Unit, String> head : keys.entrySet()) {
+			Abstract1 state = getFlowBefore(head.getKey()).get();
+			if (state == null || state.isBottom(man)) {
+				continue;
+			}
+			Map<String, Interval> box = new HashMap<String, Interval>();
+			for (String var : env.getIntVars()) {
+				box.put(var, state.getBound(man, var));
+				Metrics.count(Metrics.ApronOp.GET_BOUND);
+			}
+			boxes.put(head.getValue(), box);
+		}
+		return boxes;
+	}
 
-		Texpr1Node lAr = null;
-		Texpr1Node rAr = null;
+	void run() {
+		if (budget != null) {
+			budget.start();
+		}
+		if (sparse) {
+			retained = queryPoints(g.getBody());
+		}
 
-		Texpr1Node resultNodeLR, resultNodeRL;
+		if (useBlocks) {
+			blockEngine = new BlockEngine(this, g.getBody(),
+					graphs.blocks != null ? graphs.blocks : new BriefBlockGraph(g.getBody()));
+			blockEngine.run();
+			checkSeeds();
+			blockEngine.narrow(narrowingSteps);
+			keepInvariants();
+			if (retained != null) {
+				fixpointStates = heldStates();
+				blockEngine.release(retained);
+				keptStates = heldStates();
+			}
+			return;
+		}
 
-		Tcons1 constraint = null;
-		Tcons1 constraintBranchout = null;
+		if (useWto) {
+			initFlows();
+			wtoEngine = new WtoEngine(this, g, wideningDelay);
+			wtoEngine.run();
+		} else {
+			doAnalysis();
+		}
+		checkSeeds();
+		try {
+			narrow(narrowingSteps);
+		} catch (ApronException e) {
+			e.printStackTrace();
+		}
+		keepInvariants();
+		if (retained != null) {
+			fixpointStates = heldStates();
+			releaseStates();
+			keptStates = heldStates();
+		}
+	}
 
-		if (left instanceof IntConstant) {
-			lAr = new Texpr1CstNode(new MpqScalar(((IntConstant) left).value));
-		} else if (left instanceof JimpleLocal) {
-			if (left.getType().toString().equals("PrinterArray")) {
-				ow.set(new Abstract1(man, in));
-				ow_branchout.set(new Abstract1(man, in));
+	/*
+	 * A seed is joined into the state of its head, so it is an invariant
+	 * exactly when the fixpoint did not grow the head beyond it.
+	 */
+	private void checkSeeds() {
+		for (Map.Entry<Unit, Abstract1> seed : seeds.entrySet()) {
+			try {
+				Metrics.count(Metrics.ApronOp.IS_INCLUDED);
+				if (!getFlowBefore(seed.getKey()).get().isIncluded(man, seed.getValue())) {
+					seedsHeld = false;
+					return;
+				}
+			} catch (ApronException e) {
+				e.printStackTrace();
+				seedsHeld = false;
 				return;
 			}
-			lAr = new Texpr1VarNode(((JimpleLocal) left).getName());
-		} else {
-			System.out.println("left: unexpected:" + left.getClass()
-					+ " name:" + ((JimpleLocal) left).getName());
 		}
+	}
 
+	/* Start every unit from bottom, as doAnalysis does, for an engine of our own. */
+	private void initFlows() {
+		for (Unit u : g.getBody().getUnits()) {
+			unitToBeforeFlow.put(u, newInitialFlow());
 
-        if(right instanceof IntConstant) {
-            rAr = new Texpr1CstNode(new MpqScalar(((IntConstant) right).value));
-        }
-        else if(right instanceof JimpleLocal) {
-            rAr = new Texpr1VarNode(((JimpleLocal) right).getName());
-        }
-
-        resultNodeLR = new Texpr1BinNode(Texpr1BinNode.OP_SUB, lAr, rAr);
-        resultNodeRL = new Texpr1BinNode(Texpr1BinNode.OP_SUB, rAr, lAr);
+			ArrayList<AWrapper> fall = new ArrayList<AWrapper>();
+			if (u.fallsThrough()) {
+				fall.add(newInitialFlow());
+			}
+			unitToAfterFallFlow.put(u, fall);
 
-        if(eqExpr instanceof JEqExpr) {
-            constraint = new Tcons1(env, Tcons1.DISEQ, resultNodeRL);
-            constraintBranchout = new Tcons1(env, Tcons1.EQ, resultNodeRL);
-        }
-        else if(eqExpr instanceof JNeExpr) {
-        	constraint = new Tcons1(env, Tcons1.EQ, resultNodeRL);
-            constraintBranchout = new Tcons1(env, Tcons1.DISEQ, resultNodeRL);
-        }
-        else if(eqExpr instanceof JGeExpr) {
-            constraint = new Tcons1(env, Tcons1.SUP, resultNodeRL);
-            constraintBranchout = new Tcons1(env, Tcons1.SUPEQ, resultNodeLR);
-        }
-        else if(eqExpr instanceof JLeExpr) {
-            constraint = new Tcons1(env, Tcons1.SUP, resultNodeLR);
-            constraintBranchout = new Tcons1(env, Tcons1.SUPEQ, resultNodeRL);
-        }
-        else if(eqExpr instanceof JGtExpr) {
-            constraint = new Tcons1(env, Tcons1.SUPEQ, resultNodeRL);
-            constraintBranchout = new Tcons1(env, Tcons1.SUP, resultNodeLR);
-        }
-        else if(eqExpr instanceof JLtExpr) {
-            constraint = new Tcons1(env, Tcons1.SUPEQ, resultNodeLR);
-            constraintBranchout = new Tcons1(env, Tcons1.SUP, resultNodeRL);
-        }
+			ArrayList<AWrapper> branches = new ArrayList<AWrapper>();
+			for (int i = 0; i < u.getUnitBoxes().size(); i++) {
+				branches.add(newInitialFlow());
+			}
+			unitToAfterBranchFlow.put(u, branches);
+		}
+	}
 
+	/* Record the loop head invariants while all states are still around. */
+	private void keepInvariants() {
+		if (!keepInvariants) {
+			return;
+		}
+		try {
+			invariants = loopHeadInvariants();
+		} catch (ApronException e) {
+			e.printStackTrace();
+		}
+	}
 
-        Tcons1[] fallout = new Tcons1[1];
-        Tcons1[] branchout = new Tcons1[1];
-        Abstract1 a1, a2;
+	/* The units whose states the checkers read: divisions and sendJob calls. */
+	static Set<Unit> queryPoints(Body body) {
+		Set<Unit> queries = new HashSet<Unit>();
+		for (Unit u : body.getUnits()) {
+			if (isResourceCall(u)) {
+				queries.add(u);
+				continue;
+			}
+			for (ValueBox vb : u.getUseBoxes()) {
+				if (vb.getValue() instanceof JDivExpr) {
+					queries.add(u);
+					break;
+				}
+			}
+		}
+		return queries;
+	}
 
-        fallout[0] = constraint;
-        branchout[0] = constraintBranchout;
-        a1 = new Abstract1(man, fallout);
-        a2 = new Abstract1(man, branchout);
+	static boolean isResourceCall(Unit u) {
+		return u instanceof JInvokeStmt && ((JInvokeStmt) u).getInvokeExpr() instanceof JVirtualInvokeExpr
+				&& ((JInvokeStmt) u).getInvokeExpr().getMethodRef().name().equals(functionName);
+	}
 
+	/* Whether the state before u is still available to the checkers. */
+	public boolean isRetained(Unit u) {
+		return retained == null || retained.contains(u);
+	}
 
-        ow.set(in.meetCopy(man, constraint));
-        ow_branchout.set(in.meetCopy(man, constraintBranchout));
+	/*
+	 * Drop every state except those before the query points once the
+	 * fixpoint is reached. Apron states have no explicit free in Java, but
+	 * once dropped they are unreachable and their native memory is
+	 * reclaimed by their finalizers instead of living as long as the
+	 * analysis.
+	 */
+	private void releaseStates() {
+		for (Unit u : g.getBody().getUnits()) {
+			if (!retained.contains(u)) {
+				super.getFlowBefore(u).set(null);
+			}
 
+			if (u.fallsThrough() && g.getBody().getUnits().getSuccOf(u) != null) {
+				getFallFlowAfter(u).set(null);
+			}
+			for (AWrapper branch : getBranchFlowAfter(u)) {
+				branch.set(null);
+			}
+		}
 	}
 
-
 	@Override
-	protected void flowThrough(AWrapper current, Unit op,
-			List<AWrapper> fallOut, List<AWrapper> branchOuts) {
-
-		Stmt s = (Stmt) op;
-
-		Abstract1 in = ((AWrapper) current).get();
-
-		Abstract1 o;
-		try {
-			o = new Abstract1(man, in);
-			Abstract1 o_branchout = new Abstract1(man, in);
+	public AWrapper getFlowBefore(Unit s) {
+		if (blockEngine != null) {
+			return blockEngine.getFlowBefore(s);
+		}
+		return super.getFlowBefore(s);
+	}
 
+	/*
+	 * Widening thresholds v <= c and v >= c for every tracked variable v and
+	 * every integer constant c compared in a condition or given as size to a
+	 * PrinterArray constructor (for which size - 1 is added as well).
+	 */
+	private Lincons1[] harvestThresholds() {
+		Set<Integer> constants = new TreeSet<Integer>();
+		for (Unit u : g.getBody().getUnits()) {
+			if (u instanceof IfStmt) {
+				for (ValueBox vb : ((IfStmt) u).getCondition().getUseBoxes()) {
+					if (vb.getValue() instanceof IntConstant) {
+						constants.add(((IntConstant) vb.getValue()).value);
+					}
+				}
+			} else if (u instanceof JInvokeStmt) {
+				InvokeExpr e = ((JInvokeStmt) u).getInvokeExpr();
+				if (e instanceof JSpecialInvokeExpr
+						&& e.getMethodRef().declaringClass().getName().equals(resourceArrayName)
+						&& e.getArgCount() == 1 && e.getArg(0) instanceof IntConstant) {
+					int size = ((IntConstant) e.getArg(0)).value;
+					constants.add(size);
+					constants.add(size - 1);
+				}
+			}
+		}
 
-			if (s instanceof DefinitionStmt) {
-				DefinitionStmt sd = (DefinitionStmt) s;
-				Value left = sd.getLeftOp();
-				Value right = sd.getRightOp();
+		List<Lincons1> result = new ArrayList<Lincons1>();
+		for (String var : env.getIntVars()) {
+			for (int c : constants) {
+				// c - v >= 0
+				result.add(new Lincons1(Lincons1.SUPEQ, new Linexpr1(env,
+						new Linterm1[] { new Linterm1(var, new MpqScalar(-1)) }, new MpqScalar(c))));
+				// v - c >= 0
+				result.add(new Lincons1(Lincons1.SUPEQ, new Linexpr1(env,
+						new Linterm1[] { new Linterm1(var, new MpqScalar(1)) }, new MpqScalar(-c))));
+			}
+		}
+		return result.toArray(new Lincons1[result.size()]);
+	}
 
-				// You do not need to handle these cases:
-				if (!(left instanceof JimpleLocal)) {
-					unhandled("1: Assignment to non-variables is not handled.");
-				} else if ((left instanceof JArrayRef)
-						&& (!((((JArrayRef) left).getBase()) instanceof JimpleLocal))) {
-					unhandled("2: Assignment to a non-local array variable is not handled.");
+	/*
+	 * Bounded narrowing: recompute the state before every unit from the
+	 * states its predecessors flow into it, without widening. The fixpoint
+	 * reached with widening is a post-fixpoint, so every step stays sound
+	 * and can only make the states more precise.
+	 */
+	private void narrow(int steps) throws ApronException {
+		for (int step = 0; step < steps; step++) {
+			for (Unit u : g.getBody().getUnits()) {
+				Abstract1 before = null;
+				if (g.getHeads().contains(u)) {
+					before = entryInitialFlow().get();
 				}
-
-				if (left instanceof JArrayRef || left instanceof JInstanceFieldRef) {
-					return;
+				// one copy takes the joins in place, no intermediate state is left behind
+				boolean copied = false;
+				for (Unit pred : g.getPredsOf(u)) {
+					for (AWrapper flow : flowsInto(pred, u)) {
+						if (before == null) {
+							before = flow.get();
+						} else if (!copied) {
+							before = allocated(before.joinCopy(man, flow.get()));
+							Metrics.count(Metrics.ApronOp.JOIN);
+							copied = true;
+						} else {
+							before.join(man, flow.get());
+							Metrics.count(Metrics.ApronOp.JOIN_IN_PLACE);
+						}
+					}
 				}
-
-				if (left.getType() instanceof DoubleType) {
-					return;
+				if (before == null) {
+					continue;
 				}
 
-				if ((left.getType() instanceof RefType && !left.getType()
-						.toString().equals(resourceArrayName))
-						|| left.getType() instanceof ArrayType) {
-					return;
+				AWrapper beforeFlow = getFlowBefore(u);
+				beforeFlow.set(before);
+
+				List<AWrapper> fallOut = new ArrayList<AWrapper>();
+				if (u.fallsThrough()) {
+					fallOut.add(getFallFlowAfter(u));
 				}
+				flowThrough(beforeFlow, u, fallOut, getBranchFlowAfter(u));
+			}
+		}
+	}
 
-				// Make sure you support all definition statements
-				handleDef(o, left, right);
+	/* The states pred passes on to succ, along its fall-through and branches. */
+	List<AWrapper> flowsInto(Unit pred, Unit succ) {
+		List<AWrapper> flows = new ArrayList<AWrapper>();
+		if (pred.fallsThrough() && g.getBody().getUnits().getSuccOf(pred) == succ) {
+			flows.add(getFallFlowAfter(pred));
+		}
+		if (pred.branches()) {
+			Iterator<AWrapper> branchIt = getBranchFlowAfter(pred).iterator();
+			for (UnitBox ub : pred.getUnitBoxes()) {
+				AWrapper flow = branchIt.next();
+				if (ub.getUnit() == succ) {
+					flows.add(flow);
+				}
+			}
+		}
+		return flows;
+	}
 
-			} else if (s instanceof JIfStmt) {
-				IfStmt ifs = (JIfStmt) s;
-				Value condition = ifs.getCondition();
+	static void unhandled(String what) {
+		System.err.println("Can't handle " + what);
+	}
 
-				if (condition instanceof JEqExpr
-						|| condition instanceof JNeExpr
-						|| condition instanceof JGeExpr
-						|| condition instanceof JLeExpr
-						|| condition instanceof JLtExpr
-						|| condition instanceof JGtExpr) {
 
-					AWrapper ow = new AWrapper(null);
-					AWrapper ow_branchout = new AWrapper(null);
+	@Override
+	protected void flowThrough(AWrapper current, Unit op,
+			List<AWrapper> fallOut, List<AWrapper> branchOuts) {
 
-					AbstractBinopExpr eqExpr = (AbstractBinopExpr) condition;
+		Stmt s = (Stmt) op;
 
-					// Make sure handleIf supports the conditional expressions above
-					handleIf(eqExpr, in, ow, ow_branchout);
+		Abstract1 in = current.get();
 
-					o = ow.get();
-					o_branchout = ow_branchout.get();
-				}
+		// a state is copied only by the transfer function that modifies it,
+		// every other statement passes the incoming state on unchanged
+		Abstract1 o = in;
+		Abstract1 o_branchout = in;
+		transfers++;
+		if (budget != null) {
+			budget.check(transfers);
+		}
+		try {
+			Transfer t = compiled.get(s);
+			switch (t.kind) {
+			case ASSIGN:
+				o = allocated(new Abstract1(man, in));
+				o.assign(man, t.var, t.expr, null);
+				Metrics.count(Metrics.ApronOp.ASSIGN);
+				o_branchout = o;
+				break;
+			case FORGET:
+				o = allocated(new Abstract1(man, in));
+				o.forget(man, t.var, false);
+				o_branchout = o;
+				break;
+			case CONDITION:
+				o = allocated(in.meetCopy(man, t.fall));
+				o_branchout = allocated(in.meetCopy(man, t.branch));
+				Metrics.count(Metrics.ApronOp.MEET, 2);
+				break;
+			default:
+				break;
 			}
 
 			for (Iterator<AWrapper> it = fallOut.iterator(); it.hasNext();) {
@@ -328,12 +630,9 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 				}
 			}
 
-			if (s instanceof JInvokeStmt) {
-				if (s.getInvokeExpr() instanceof JVirtualInvokeExpr) {
-					stateTracer.put((JVirtualInvokeExpr) s.getInvokeExpr(), o.joinCopy(man, o_branchout));
-				}
-				// TODO (stefan):
-				// else if s.getInvokeExpr() instance of JSpecialInvokeExpr constrTracer.put.(...)
+			if (t.resourceCall) {
+				// an invoke passes its state on, so there is nothing to join
+				stateTracer.put((JVirtualInvokeExpr) s.getInvokeExpr(), o);
 			}
 
 		} catch (ApronException e) {
@@ -341,85 +640,49 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		}
 	}
 
-	private void handleDef(Abstract1 o, Value left, Value right)
-			throws ApronException {
-
-
-		Texpr1Node lAr = null;
-		Texpr1Node rAr = null;
-		Texpr1Intern xp = null;
-        Texpr1BinNode binNode = null;
-
-        // check that 'left' is a local variable
-		if (left instanceof JimpleLocal) {
-			String varName = ((JimpleLocal) left).getName();
+	/* Count a native state this analysis allocated. */
+	private Abstract1 allocated(Abstract1 state) {
+		allocations++;
+		if (natives != null) {
+			natives.allocated(state);
+		}
+		if (nativeCap > 0 && allocations >= nextCapCheck) {
+			nextCapCheck = allocations + Math.max(1, nativeCap / 10);
+			if (heldStates() > nativeCap) {
+				throw new Budget.Exceeded("more than " + nativeCap + " native states held");
+			}
+		}
+		return state;
+	}
 
-			// case 1: 'right' is constant
-			if (right instanceof IntConstant) {
-				IntConstant c = ((IntConstant) right);
-				rAr = new Texpr1CstNode(new MpqScalar(c.value));
-				xp = new Texpr1Intern(env, rAr);
-				o.assign(man, varName, xp, null);
+	/*
+	 * The distinct native states held before and after the units (or at the
+	 * block entries) and as seeds. Unlike the states NativeStates sees
+	 * alive, this does not depend on when the collector finalizes the
+	 * dropped ones.
+	 */
+	int heldStates() {
+		Set<Abstract1> held = Collections.newSetFromMap(new IdentityHashMap<Abstract1, Boolean>());
+		if (blockEngine != null) {
+			blockEngine.collectHeld(held);
+		} else {
+			for (AWrapper before : unitToBeforeFlow.values()) {
+				held.add(before.get());
 			}
-			// case 2: 'right' is a local
-			else if (right instanceof JimpleLocal) {
-                if (env.hasVar(((JimpleLocal) right).getName())) {
-                    rAr = new Texpr1VarNode(((JimpleLocal) right).getName());
-                    xp = new Texpr1Intern(env, rAr);
-                    o.assign(man, varName, xp, null);
-                }
-            }
-			// case 3: 'right' is a binary expression
-			else if (right instanceof BinopExpr) {
-                Value op1 = ((BinopExpr) right).getOp1();
-                Value op2 = ((BinopExpr) right).getOp2();
-
-
-                if(op1 instanceof JimpleLocal) {
-                    lAr = new Texpr1VarNode(((JimpleLocal) op1).getName());
-                }
-                else if(op1 instanceof IntConstant) {
-                    lAr = new Texpr1CstNode(new MpqScalar(((IntConstant) op1).value));
-                }
-
-                if(op2 instanceof JimpleLocal) {
-                    rAr = new Texpr1VarNode(((JimpleLocal) op2).getName());
-                }
-                else if(op2 instanceof IntConstant) {
-                    rAr = new Texpr1CstNode(new MpqScalar(((IntConstant) op2).value));
-                }
-
-
-                if(right instanceof JMulExpr) {
-                    binNode = new Texpr1BinNode(Texpr1BinNode.OP_MUL, lAr, rAr);
-                }
-                else if(right instanceof JSubExpr) {
-                    binNode = new Texpr1BinNode(Texpr1BinNode.OP_SUB, lAr, rAr);
-                }
-                else if(right instanceof JAddExpr) {
-                    binNode = new Texpr1BinNode(Texpr1BinNode.OP_ADD, lAr, rAr);
-                }
-                else if(right instanceof JDivExpr) {
-                    binNode = new Texpr1BinNode(Texpr1BinNode.OP_DIV, lAr, rAr);
-                }
-                else {
-                    unhandled("Invalid Binary Expression: " + right);
-                }
-
-                xp = new Texpr1Intern(env, binNode);
-                o.assign(man, varName, xp, null);
-
-            }
-			// case 4: otherwise
-			else {
-				if (o.getEnvironment().hasVar(varName)) {
-					o.forget(man, varName, false);
+			for (List<AWrapper> fall : unitToAfterFallFlow.values()) {
+				for (AWrapper after : fall) {
+					held.add(after.get());
 				}
-				else {
-					o = entryInitialFlow().get();
+			}
+			for (List<AWrapper> branches : unitToAfterBranchFlow.values()) {
+				for (AWrapper after : branches) {
+					held.add(after.get());
 				}
 			}
 		}
+		held.addAll(seeds.values());
+		held.remove(null);
+		return held.size();
 	}
 
 	@Override
@@ -433,7 +696,7 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		Abstract1 top = null;
 
 		try {
-			top = new Abstract1(man, env);
+			top = allocated(new Abstract1(man, env));
 		} catch (ApronException e) {
 		}
 
@@ -453,25 +716,52 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 	@Override
 	protected void merge(Unit succNode, AWrapper x, AWrapper y, AWrapper u) {
 		Counter count = loopHeads.get(succNode);
+		combine(succNode, x, y, u, count != null && ++count.value >= wideningDelay);
+	}
 
+	/*
+	 * Set u to the join of x and y, or to x widened by y, and join in the
+	 * seed of succNode, if any.
+	 */
+	void combine(Unit succNode, AWrapper x, AWrapper y, AWrapper u, boolean widen) {
 		Abstract1 a1 = x.get();
 		Abstract1 a2 = y.get();
 		Abstract1 a3 = null;
 
 		try{
-			if (count != null) {
-				++count.value;
-				if (count.value < WIDENING_THRESHOLD) {
-					a3 = a1.joinCopy(man, a2);
+			if (widen) {
+				if (thresholds != null) {
+					a3 = a1.wideningThreshold(man, a2, thresholds);
 				} else {
 					a3 = a1.widening(man, a2);
 				}
+				widenings++;
+				Metrics.count(Metrics.ApronOp.WIDENING);
 			} else {
 				a3 = a1.joinCopy(man, a2);
+				Metrics.count(Metrics.ApronOp.JOIN);
 			}
+
+			allocated(a3);
+
+			// the seed is joined into the fresh state, not into another copy
+			Abstract1 seed = seeds.get(succNode);
+			if (seed != null) {
+				a3.join(man, seed);
+				Metrics.count(Metrics.ApronOp.JOIN_IN_PLACE);
+			}
+		} catch (Budget.Exceeded e) {
+			throw e;
 		} catch (Exception e) {
 			System.out.println(e);
 		}
+		if (budget != null) {
+			try {
+				budget.check(a3, man);
+			} catch (ApronException e) {
+				e.printStackTrace();
+			}
+		}
 		u.set(a3);
 
 	}
@@ -484,7 +774,8 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		Abstract1 a3 = null;
 
 		try {
-			a3 = a1.joinCopy(man, a2);
+			a3 = allocated(a1.joinCopy(man, a2));
+			Metrics.count(Metrics.ApronOp.JOIN);
 		} catch (ApronException e) {
 			e.printStackTrace();
 		}
@@ -492,22 +783,31 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		trg.set(a3);
 	}
 
+	/* A wrapper for a state that flowThrough or merge is about to set. */
+	AWrapper emptyFlow() {
+		AWrapper a = new AWrapper(null);
+		a.man = man;
+		return a;
+	}
+
+	/* One bottom is shared by all units, since held states are never modified in place. */
 	@Override
 	protected AWrapper newInitialFlow() {
-		Abstract1 bot = null;
-
-		try {
-			bot = new Abstract1(man, env, true);
-		} catch (ApronException e) {
+		if (bottom == null) {
+			try {
+				bottom = allocated(new Abstract1(man, env, true));
+			} catch (ApronException e) {
+			}
 		}
-		AWrapper a = new AWrapper(bot);
+		AWrapper a = new AWrapper(bottom);
 		a.man = man;
 		return a;
 
 	}
 
 	public static final boolean isIntValue(Value val) {
-		return val.getType().toString().equals("int") || val.getType().toString().equals("short") || val.getType().toString().equals("byte");
+		Type t = val.getType();
+		return t instanceof IntType || t instanceof ShortType || t instanceof ByteType;
 	}
 
 	public static final Interval getInterval(AWrapper state, Value val) {
@@ -524,7 +824,8 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 			String var = ((Local) val).getName();
 			Interval interval = null;
 			try {
-				interval = state.get().getBound(man, var);
+				interval = state.get().getBound(state.man, var);
+				Metrics.count(Metrics.ApronOp.GET_BOUND);
 			} catch (ApronException e) {
 				e.printStackTrace();
 			}
@@ -536,12 +837,15 @@ public class Analysis extends ForwardBranchedFlowAnalysis<AWrapper> {
 		return top;
 	}
 
-	public static Manager man;
+	public Manager man;
+	public final Domain domain;
 	private Environment env;
 	public UnitGraph g;
+	private final MethodGraphs graphs;
 	public String local_ints[]; // integer local variables of the method
 	public static String reals[] = { "x" };
 	public SootClass jclass;
+	private final Set<String> tracked; // variables kept in the environment, null for all
 	private String class_ints[]; // integer class variables where the method is
 	public HashMap<JVirtualInvokeExpr, Abstract1> stateTracer;
 
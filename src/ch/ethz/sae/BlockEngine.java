@@ -0,0 +1,206 @@
+package ch.ethz.sae;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import apron.Abstract1;
+
+import soot.Body;
+import soot.Unit;
+import soot.UnitBox;
+import soot.toolkits.graph.Block;
+import soot.toolkits.graph.BlockGraph;
+import soot.util.Chain;
+
+/*
+ * Fixpoint of an Analysis over the basic blocks of its method. States are
+ * only kept at block entries; the state before a unit inside a block is
+ * recomputed on demand by applying the transfer functions from the head.
+ */
+class BlockEngine {
+
+	private final Analysis analysis;
+	private final BlockGraph graph;
+	private final Chain<Unit> units;
+
+	private final Map<Unit, Block> blockOf = new HashMap<Unit, Block>();
+	private final Map<Unit, Integer> indexInBlock = new HashMap<Unit, Integer>();
+	private final Map<Block, AWrapper> entries = new HashMap<Block, AWrapper>();
+
+	/* The last state recomputed inside a block, before cursorUnit. */
+	private Block cursorBlock;
+	private Unit cursorUnit;
+	private AWrapper cursorState;
+
+	BlockEngine(Analysis analysis, Body body, BlockGraph graph) {
+		this.analysis = analysis;
+		this.graph = graph;
+		this.units = body.getUnits();
+
+		for (Block b : graph.getBlocks()) {
+			int i = 0;
+			for (Iterator<Unit> it = b.iterator(); it.hasNext();) {
+				Unit u = it.next();
+				blockOf.put(u, b);
+				indexInBlock.put(u, i++);
+			}
+		}
+	}
+
+	void run() {
+		TreeSet<Block> worklist = new TreeSet<Block>(new Comparator<Block>() {
+			public int compare(Block a, Block b) {
+				return a.getIndexInMethod() - b.getIndexInMethod();
+			}
+		});
+
+		for (Block b : graph.getBlocks()) {
+			entries.put(b, graph.getHeads().contains(b) ? analysis.entryInitialFlow() : analysis.newInitialFlow());
+			worklist.add(b);
+		}
+
+		while (!worklist.isEmpty()) {
+			Block b = worklist.pollFirst();
+
+			for (Map.Entry<Block, AWrapper> out : propagate(b).entrySet()) {
+				Block succ = out.getKey();
+				AWrapper old = entries.get(succ);
+				AWrapper merged = analysis.emptyFlow();
+				analysis.merge(succ.getHead(), old, out.getValue(), merged);
+
+				if (!merged.equals(old)) {
+					entries.put(succ, merged);
+					worklist.add(succ);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Bounded narrowing: recompute the entry of every block from the states
+	 * its predecessors pass on, without widening.
+	 */
+	void narrow(int steps) {
+		for (int step = 0; step < steps; step++) {
+			for (Block b : graph.getBlocks()) {
+				AWrapper in = graph.getHeads().contains(b) ? analysis.entryInitialFlow() : null;
+
+				for (Block pred : graph.getPredsOf(b)) {
+					AWrapper out = propagate(pred).get(b);
+					if (out == null) {
+						continue;
+					}
+					if (in == null) {
+						in = out;
+					} else {
+						AWrapper joined = analysis.emptyFlow();
+						analysis.merge(in, out, joined);
+						in = joined;
+					}
+				}
+				if (in != null) {
+					entries.put(b, in);
+				}
+			}
+		}
+		cursorBlock = null;
+	}
+
+	/*
+	 * Drop the entries of blocks without a query point, so that only the
+	 * states needed to recompute those of the queries are kept.
+	 */
+	void release(Set<Unit> queries) {
+		for (Block b : graph.getBlocks()) {
+			boolean queried = false;
+			for (Iterator<Unit> it = b.iterator(); it.hasNext() && !queried;) {
+				queried = queries.contains(it.next());
+			}
+			if (!queried) {
+				entries.remove(b);
+			}
+		}
+		cursorBlock = null;
+		cursorState = null;
+	}
+
+	/* Add the states held at the block entries. */
+	void collectHeld(Set<Abstract1> held) {
+		for (AWrapper entry : entries.values()) {
+			held.add(entry.get());
+		}
+	}
+
+	AWrapper getFlowBefore(Unit u) {
+		Block b = blockOf.get(u);
+		if (b != cursorBlock || indexInBlock.get(cursorUnit) > indexInBlock.get(u)) {
+			cursorBlock = b;
+			cursorUnit = b.getHead();
+			cursorState = entries.get(b);
+		}
+
+		while (cursorUnit != u) {
+			List<AWrapper> fallOut = new ArrayList<AWrapper>();
+			fallOut.add(analysis.emptyFlow());
+			analysis.flowThrough(cursorState, cursorUnit, fallOut, branchFlows(cursorUnit));
+			cursorState = fallOut.get(0);
+			cursorUnit = units.getSuccOf(cursorUnit);
+		}
+		return cursorState;
+	}
+
+	/* Apply the units of b to its entry state, giving the state passed to each successor. */
+	private Map<Block, AWrapper> propagate(Block b) {
+		Map<Block, AWrapper> outs = new LinkedHashMap<Block, AWrapper>();
+		AWrapper current = entries.get(b);
+
+		for (Iterator<Unit> it = b.iterator(); it.hasNext();) {
+			Unit u = it.next();
+
+			AWrapper fall = analysis.emptyFlow();
+			List<AWrapper> fallOut = new ArrayList<AWrapper>();
+			if (u.fallsThrough()) {
+				fallOut.add(fall);
+			}
+			List<AWrapper> branchOuts = branchFlows(u);
+
+			analysis.flowThrough(current, u, fallOut, branchOuts);
+
+			Iterator<AWrapper> branchIt = branchOuts.iterator();
+			for (UnitBox ub : u.getUnitBoxes()) {
+				addOut(outs, blockOf.get(ub.getUnit()), branchIt.next());
+			}
+			if (u == b.getTail() && u.fallsThrough() && units.getSuccOf(u) != null) {
+				addOut(outs, blockOf.get(units.getSuccOf(u)), fall);
+			}
+			current = fall;
+		}
+		return outs;
+	}
+
+	private List<AWrapper> branchFlows(Unit u) {
+		List<AWrapper> branchOuts = new ArrayList<AWrapper>();
+		for (int i = 0; i < u.getUnitBoxes().size(); i++) {
+			branchOuts.add(analysis.emptyFlow());
+		}
+		return branchOuts;
+	}
+
+	private void addOut(Map<Block, AWrapper> outs, Block succ, AWrapper flow) {
+		AWrapper other = outs.get(succ);
+		if (other == null) {
+			outs.put(succ, flow);
+		} else {
+			AWrapper joined = analysis.emptyFlow();
+			analysis.merge(other, flow, joined);
+			outs.put(succ, joined);
+		}
+	}
+}
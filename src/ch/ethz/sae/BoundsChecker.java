@@ -0,0 +1,69 @@
+package ch.ethz.sae;
+
+import java.util.List;
+
+import apron.Abstract1;
+import soot.Local;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.InvokeExpr;
+import soot.jimple.internal.JInvokeStmt;
+import soot.jimple.internal.JVirtualInvokeExpr;
+
+/* Checks that every sendJob argument is within the bounds of its PrinterArray. */
+public class BoundsChecker implements Checker {
+
+	private final Analysis fixPoint;
+	private final AllocationIndex allocations;
+	private boolean mayBeOutOfBounds = false;
+
+	public BoundsChecker(Analysis fixPoint, AllocationIndex allocations) {
+		this.fixPoint = fixPoint;
+		this.allocations = allocations;
+	}
+
+	public void visit(Unit u, AWrapper state) {
+		if (!(u instanceof JInvokeStmt)) {
+			return;
+		}
+		InvokeExpr e = ((JInvokeStmt) u).getInvokeExpr();
+
+		// Call of sendJob
+		if (e instanceof JVirtualInvokeExpr && e.getMethodRef().name().equals(Analysis.functionName)) {
+			JVirtualInvokeExpr invokeExpr = (JVirtualInvokeExpr) e;
+
+			// the allocation sites are resolved once per call
+			List<Object> sites = allocations.resourceSitesOf(u);
+			// a receiver with no known PrinterArray allocation (e.g. always null) is treated as safe,
+			// unless its allocation may have been missed
+			if (sites.isEmpty()) {
+				mayBeOutOfBounds = allocations.unresolvedUnsafe;
+				return;
+			}
+
+			// Check whether the 'sendJob' method's argument is within bounds of every site
+			// (a local outside the environment is checked by the analysis of its pack)
+			Value arg = invokeExpr.getArg(0);
+			if (arg instanceof Local && !fixPoint.tracks(arg)) {
+				return;
+			}
+			Abstract1 callState = fixPoint.stateTracer.get(invokeExpr);
+			for (Object site : sites) {
+				if (!Verifier.isWithinBounds(arg, allocations.sizeOf(site), callState, fixPoint.man)) {
+					mayBeOutOfBounds = true;
+					return;
+				}
+			}
+		}
+	}
+
+	public boolean isDone() {
+		return mayBeOutOfBounds;
+	}
+
+	public void report(Verdict verdict) {
+		if (mayBeOutOfBounds) {
+			verdict.noOutOfBounds = false;
+		}
+	}
+}
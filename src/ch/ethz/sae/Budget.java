@@ -0,0 +1,63 @@
+package ch.ethz.sae;
+
+import apron.Abstract1;
+import apron.ApronException;
+import apron.Manager;
+
+/*
+ * Limits on the analysis of a single method: wall time, transfer function
+ * applications and the size of a state. Checked between Apron operations,
+ * so a single operation that blows up is only noticed once it returns.
+ */
+public class Budget {
+
+	/* Thrown out of the fixpoint computation when a limit is reached. */
+	public static class Exceeded extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public Exceeded(String message) {
+			super(message);
+		}
+	}
+
+	private final long millis;
+	private final int iterations;
+	private final int constraints;
+	private long deadline;
+
+	private Budget(long millis, int iterations, int constraints) {
+		this.millis = millis;
+		this.iterations = iterations;
+		this.constraints = constraints;
+	}
+
+	/* The budget set in the configuration, null if there is none. */
+	public static Budget of(Config config) {
+		if (config.budgetMillis == 0 && config.budgetIterations == 0 && config.budgetConstraints == 0) {
+			return null;
+		}
+		return new Budget(config.budgetMillis, config.budgetIterations, config.budgetConstraints);
+	}
+
+	public void start() {
+		deadline = millis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + millis;
+	}
+
+	/* Check the time and the number of transfer functions applied so far. */
+	public void check(int transfers) {
+		if (iterations != 0 && transfers > iterations) {
+			throw new Exceeded("more than " + iterations + " iterations");
+		}
+		if (System.currentTimeMillis() > deadline) {
+			throw new Exceeded("more than " + millis + " ms");
+		}
+	}
+
+	/* Check the size of a state Apron reports, the number of constraints for polyhedra. */
+	public void check(Abstract1 state, Manager man) throws ApronException {
+		if (constraints != 0 && state != null && state.getSize(man) > constraints) {
+			throw new Exceeded("a state of more than " + constraints + " constraints");
+		}
+	}
+}
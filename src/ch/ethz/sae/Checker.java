@@ -0,0 +1,19 @@
+package ch.ethz.sae;
+
+import soot.Unit;
+
+/*
+ * A property checked on the fixpoint of a method. All checkers of a method
+ * are driven by a single walk over its units, see Verifier.runCheckers.
+ */
+public interface Checker {
+
+	/* Called for every reachable unit with the state before it. */
+	void visit(Unit u, AWrapper state);
+
+	/* True once the verdict can not change anymore, e.g. after a MAY_ result. */
+	boolean isDone();
+
+	/* Record the outcome of the check in the verdict of the method. */
+	void report(Verdict verdict);
+}
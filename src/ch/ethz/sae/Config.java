@@ -0,0 +1,340 @@
+package ch.ethz.sae;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Command line configuration of the verifier. */
+public class Config {
+
+	/* How the environment of a method is reduced before its analysis. */
+	public enum Packing {
+		/* All integer variables of the method and class. */
+		NONE,
+		/* Only the variables that may influence a divisor or sendJob argument. */
+		PRUNE,
+		/* The relevant variables, split into independently analysed packs. */
+		SPLIT
+	}
+
+	public static final String USAGE =
+		"Usage: java -classpath soot-2.5.0.jar:./bin ch.ethz.sae.Verifier [options] <class to test>\n"
+		+ "Options:\n"
+		+ "  --batch        verify every given class, directory or jar in one run\n"
+		+ "  --server <port>       serve verification requests on a localhost port\n"
+		+ "  --workers <n>  with --batch, verify the classes in n forked JVMs, surviving their crashes\n"
+		+ "  --worker-timeout <s>  restart a worker that spends more than s seconds on a class (default 300)\n"
+		+ "  --threads <n>  analyse the methods of a class on n worker threads\n"
+		+ "  --stats        print analysis counters to stderr when done\n"
+		+ "  --timing       print the time spent per phase to stderr when done\n"
+		+ "  --metrics <f>  write phase times, Apron call counts and per-method data as JSON to f (- for stderr)\n"
+		+ "  --budget-time <ms>    give up on the analysis of a method after ms milliseconds\n"
+		+ "  --budget-iterations <n>   give up after n transfer functions in a method\n"
+		+ "  --budget-constraints <n>  give up once a state has more than n constraints\n"
+		+ "  --budget-fallback <f> when a budget runs out: may (default) or box\n"
+		+ "  --native-cap <n>      out of budget once more than n native states are held\n"
+		+ "  --fast-start   load only the analysed classes fully, JDK classes as phantoms or signatures\n"
+		+ "  --domain <d>   numerical domain: box, oct, polka (default) or escalate\n"
+		+ "  --pack <p>     environment pruning: none (default), prune or split\n"
+		+ "  --widening-delay <n>  joins at a loop head before widening (default 6)\n"
+		+ "  --thresholds <t>      widening thresholds: none (default) or constants\n"
+		+ "  --narrowing <n>       narrowing steps after the fixpoint (default 0)\n"
+		+ "  --prepass      discharge checks with a pure Java interval analysis first, running Apron\n"
+		+ "                 only for the methods it can't settle\n"
+		+ "  --engine <e>   fixpoint iteration: worklist (default, Soot's) or wto (weak topological order)\n"
+		+ "  --blocks       iterate over basic blocks, keeping states only at block entries\n"
+		+ "  --sparse       keep only the states at divisions and sendJob calls after the fixpoint\n"
+		+ "  --points-to <p>       resolve PrinterArray receivers with spark (default) or local,\n"
+		+ "                        falling back to spark for classes whose PrinterArrays escape\n"
+		+ "  --cache <dir>  reuse the verdicts of unchanged classes stored in dir\n"
+		+ "  --incremental <dir>   reuse unchanged methods and warm-start changed ones from dir";
+
+	/* Verify several classes (names, directories or jars) with a shared Scene. */
+	public boolean batch = false;
+
+	/* Port of the localhost verification server, 0 to verify the targets and exit. */
+	public int serverPort = 0;
+
+	/*
+	 * Number of forked JVMs verifying the classes of a batch, 0 to verify
+	 * them in this JVM.
+	 */
+	public int workers = 0;
+
+	/* Seconds a worker may spend on one class before it is restarted. */
+	public int workerTimeoutSeconds = 300;
+
+	/* Run as a worker of a WorkerPool, reading class names from stdin. */
+	public boolean worker = false;
+
+	/* The options passed on to the workers. */
+	public List<String> workerArgs = new ArrayList<String>();
+
+	/* Number of threads analysing methods, 1 analyses them sequentially. */
+	public int threads = 1;
+
+	/* Numerical domain of the analysis. */
+	public Domain domain = Domain.POLKA;
+
+	/*
+	 * Analyse each method with the cheapest domain first and move on to the
+	 * next one only while some check of the method could not be discharged.
+	 */
+	public boolean escalate = false;
+
+	public Packing packing = Packing.NONE;
+
+	/* Number of joins at a loop head before widening is applied. */
+	public int wideningDelay = 6;
+
+	/*
+	 * Widen with thresholds taken from the integer constants of the
+	 * conditions and PrinterArray constructors of the method.
+	 */
+	public boolean thresholds = false;
+
+	/* Number of narrowing steps run after the fixpoint is reached. */
+	public int narrowingSteps = 0;
+
+	/*
+	 * Prove the checks of each method with IntervalPrepass first and skip
+	 * Apron for the methods whose checks it all discharges.
+	 */
+	public boolean prepass = false;
+
+	/*
+	 * Iterate in the weak topological order of Bourdoncle, widening at
+	 * component heads, instead of with the worklist of Soot.
+	 */
+	public boolean wto = false;
+
+	/* Analyse over basic blocks instead of single statements. */
+	public boolean blocks = false;
+
+	/* Release all states the checkers do not read once the fixpoint is reached. */
+	public boolean sparse = false;
+
+	/*
+	 * Resolve sendJob receivers by tracking allocations within each method
+	 * for classes whose PrinterArrays stay in locals, instead of with Spark.
+	 */
+	public boolean localPointsTo = false;
+
+	/*
+	 * Limits on the analysis of one method, 0 for no limit: wall time,
+	 * transfer functions applied and constraints in a state.
+	 */
+	public long budgetMillis = 0;
+	public int budgetIterations = 0;
+	public int budgetConstraints = 0;
+
+	/*
+	 * Number of native Apron states an analysis may hold before it runs out
+	 * of budget, 0 for no cap.
+	 */
+	public int nativeCap = 0;
+
+	/* Retry with intervals when a budget runs out, instead of reporting MAY. */
+	public boolean budgetFallbackToBox = false;
+
+	/* Directory of the persistent verdict cache, null for no cache. */
+	public String cacheDir = null;
+
+	/*
+	 * Directory of the per-method verdicts and loop head invariants of the
+	 * previous run, null to analyse every method from scratch.
+	 */
+	public String incrementalDir = null;
+
+	/* Print the counters of Metrics at the end of the run. */
+	public boolean stats = false;
+
+	/* File to write the JSON metrics to, - for stderr, null for none. */
+	public String metricsFile = null;
+
+	/* Print the time spent loading, building bodies, in points-to, fixpoints and checks. */
+	public boolean timing = false;
+
+	/*
+	 * Skip the transitive loading of the JDK: only the analysed classes and
+	 * PrinterArray get bodies, missing classes become phantoms.
+	 */
+	public boolean fastStart = false;
+
+	/* Class names, or directories and jars in batch mode. */
+	public List<String> targets = new ArrayList<String>();
+
+	public static Config parse(String[] args) {
+		Config config = new Config();
+
+		for (int i = 0; i < args.length; i++) {
+			int start = i;
+			String arg = args[i];
+			if (arg.equals("--batch")) {
+				config.batch = true;
+			} else if (arg.equals("--workers")) {
+				config.workers = parseNumber(arg, value(args, ++i, arg), 1);
+				continue;
+			} else if (arg.equals("--worker-timeout")) {
+				config.workerTimeoutSeconds = parseNumber(arg, value(args, ++i, arg), 1);
+				continue;
+			} else if (arg.equals("--worker")) {
+				config.worker = true;
+				continue;
+			} else if (arg.equals("--server")) {
+				config.serverPort = parseNumber(arg, value(args, ++i, arg), 1);
+			} else if (arg.equals("--prepass")) {
+				config.prepass = true;
+			} else if (arg.equals("--engine")) {
+				String engine = value(args, ++i, arg);
+				if (engine.equals("wto")) {
+					config.wto = true;
+				} else if (engine.equals("worklist")) {
+					config.wto = false;
+				} else {
+					throw new IllegalArgumentException("Unknown engine " + engine);
+				}
+			} else if (arg.equals("--blocks")) {
+				config.blocks = true;
+			} else if (arg.equals("--sparse")) {
+				config.sparse = true;
+			} else if (arg.equals("--points-to")) {
+				String pointsTo = value(args, ++i, arg);
+				if (pointsTo.equals("local")) {
+					config.localPointsTo = true;
+				} else if (pointsTo.equals("spark")) {
+					config.localPointsTo = false;
+				} else {
+					throw new IllegalArgumentException("Unknown points-to analysis " + pointsTo);
+				}
+			} else if (arg.equals("--cache")) {
+				config.cacheDir = value(args, ++i, arg);
+			} else if (arg.equals("--incremental")) {
+				config.incrementalDir = value(args, ++i, arg);
+			} else if (arg.equals("--stats")) {
+				config.stats = true;
+			} else if (arg.equals("--metrics")) {
+				config.metricsFile = value(args, ++i, arg);
+				continue;
+			} else if (arg.equals("--timing")) {
+				config.timing = true;
+			} else if (arg.equals("--budget-time")) {
+				config.budgetMillis = parseNumber(arg, value(args, ++i, arg), 1);
+			} else if (arg.equals("--budget-iterations")) {
+				config.budgetIterations = parseNumber(arg, value(args, ++i, arg), 1);
+			} else if (arg.equals("--budget-constraints")) {
+				config.budgetConstraints = parseNumber(arg, value(args, ++i, arg), 1);
+			} else if (arg.equals("--native-cap")) {
+				config.nativeCap = parseNumber(arg, value(args, ++i, arg), 1);
+			} else if (arg.equals("--budget-fallback")) {
+				String fallback = value(args, ++i, arg);
+				if (fallback.equals("box")) {
+					config.budgetFallbackToBox = true;
+				} else if (fallback.equals("may")) {
+					config.budgetFallbackToBox = false;
+				} else {
+					throw new IllegalArgumentException("Unknown budget fallback " + fallback);
+				}
+			} else if (arg.equals("--fast-start")) {
+				config.fastStart = true;
+			} else if (arg.equals("--domain")) {
+				String domain = value(args, ++i, arg);
+				if (domain.equals("escalate")) {
+					config.escalate = true;
+				} else {
+					config.domain = Domain.parse(domain);
+				}
+			} else if (arg.equals("--pack")) {
+				String packing = value(args, ++i, arg);
+				try {
+					config.packing = Packing.valueOf(packing.toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown packing " + packing);
+				}
+			} else if (arg.equals("--widening-delay")) {
+				config.wideningDelay = parseNumber(arg, value(args, ++i, arg), 1);
+			} else if (arg.equals("--thresholds")) {
+				String thresholds = value(args, ++i, arg);
+				if (thresholds.equals("constants")) {
+					config.thresholds = true;
+				} else if (thresholds.equals("none")) {
+					config.thresholds = false;
+				} else {
+					throw new IllegalArgumentException("Unknown threshold strategy " + thresholds);
+				}
+			} else if (arg.equals("--narrowing")) {
+				config.narrowingSteps = parseNumber(arg, value(args, ++i, arg), 0);
+			} else if (arg.equals("--threads")) {
+				config.threads = parseNumber(arg, value(args, ++i, arg), 1);
+			} else if (arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			} else {
+				config.targets.add(arg);
+			}
+			// everything but the pool settings and the metrics file is passed on to the workers
+			config.workerArgs.addAll(Arrays.asList(args).subList(start, i + 1));
+		}
+
+		if (config.wto && config.blocks) {
+			throw new IllegalArgumentException("--blocks has its own engine, it can't be combined with --engine wto");
+		}
+		if (config.workers > 0 && !config.batch) {
+			throw new IllegalArgumentException("--workers needs --batch");
+		}
+		if (config.worker) {
+			// a worker reads its classes from stdin, its targets only extend the class path
+			return config;
+		}
+		if (config.serverPort > 0) {
+			if (!config.targets.isEmpty()) {
+				throw new IllegalArgumentException("Classes are sent to the server, not given with --server");
+			}
+		} else if (config.targets.isEmpty() || (!config.batch && config.targets.size() != 1)) {
+			throw new IllegalArgumentException("Expected a single class to test");
+		}
+		return config;
+	}
+
+	/*
+	 * The settings that can change a verdict, part of the key of the
+	 * verdict cache.
+	 */
+	public String fingerprint() {
+		return "domain=" + (escalate ? "escalate" : domain.option)
+			+ ";pack=" + packing
+			+ ";wideningDelay=" + wideningDelay
+			+ ";thresholds=" + thresholds
+			+ ";narrowing=" + narrowingSteps
+			+ ";blocks=" + blocks
+			+ ";engine=" + engineName()
+			+ ";prepass=" + prepass
+			+ ";pointsTo=" + (localPointsTo ? "local" : "spark")
+			+ ";fastStart=" + fastStart
+			+ ";budget=" + budgetMillis + "/" + budgetIterations + "/" + budgetConstraints
+			+ "/" + nativeCap + "/" + (budgetFallbackToBox ? "box" : "may")
+			+ ";incremental=" + (incrementalDir != null);
+	}
+
+	/* The fixpoint engine, as reported with --metrics. */
+	public String engineName() {
+		return blocks ? "blocks" : wto ? "wto" : "worklist";
+	}
+
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		return args[i];
+	}
+
+	private static int parseNumber(String option, String value, int min) {
+		try {
+			int n = Integer.parseInt(value);
+			if (n >= min) {
+				return n;
+			}
+		} catch (NumberFormatException e) {
+		}
+		throw new IllegalArgumentException("Expected a number of at least " + min + " for " + option + ": " + value);
+	}
+}
@@ -0,0 +1,65 @@
+package ch.ethz.sae;
+
+import soot.IntegerType;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.IntConstant;
+import soot.jimple.internal.JDivExpr;
+import soot.jimple.internal.JimpleLocal;
+import apron.Interval;
+import apron.MpqScalar;
+
+/* Checks that no divisor of the method may be zero. */
+public class DivisionByZeroChecker implements Checker {
+
+	private final Analysis fixPoint;
+	private boolean mayDivideByZero = false;
+
+	public DivisionByZeroChecker(Analysis fixPoint) {
+		this.fixPoint = fixPoint;
+	}
+
+	public void visit(Unit u, AWrapper state) {
+		// Iterate through all the used boxes
+		for (ValueBox vb : u.getUseBoxes()) {
+			// Get the value from the current box
+			Value v = vb.getValue();
+			// Check if it is a division
+			if (v instanceof JDivExpr) {
+				// Yes: then get the divisor of the division
+				Value divisor = ((JDivExpr) v).getOp2();
+				// Case distinction on the type of the divisor
+				// case 1: divisor is a constant
+				if (divisor instanceof IntConstant) {
+					if (((IntConstant) divisor).value == 0) {
+						mayDivideByZero = true;
+						return;
+					}
+				}
+				// case 2: divisor is a local, zero must not be in its interval
+				else if (divisor instanceof JimpleLocal) {
+					// an integer local outside the environment is checked by the analysis of its pack
+					if (divisor.getType() instanceof IntegerType && !fixPoint.tracks(divisor)) {
+						continue;
+					}
+					Interval i = Analysis.getInterval(state, divisor);
+					if (i.cmp(new MpqScalar(0)) == 0 || i.cmp(new MpqScalar(0)) == 1) {
+						mayDivideByZero = true;
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	public boolean isDone() {
+		return mayDivideByZero;
+	}
+
+	public void report(Verdict verdict) {
+		if (mayDivideByZero) {
+			verdict.noDivZero = false;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package ch.ethz.sae;
+
+import apron.Box;
+import apron.Manager;
+import apron.Octagon;
+import apron.Polka;
+
+/* The numerical domains the analysis can run in, from cheapest to most precise. */
+public enum Domain {
+
+	BOX("box") {
+		Manager create() {
+			return new Box();
+		}
+	},
+	OCTAGON("oct") {
+		Manager create() {
+			return new Octagon();
+		}
+	},
+	POLKA("polka") {
+		Manager create() {
+			return new Polka(true);
+		}
+	};
+
+	public final String option;
+
+	/*
+	 * Each thread analysing methods owns its managers, so that analyses of
+	 * different methods can run concurrently.
+	 */
+	private final ThreadLocal<Manager> managers = new ThreadLocal<Manager>() {
+		@Override
+		protected Manager initialValue() {
+			return create();
+		}
+	};
+
+	Domain(String option) {
+		this.option = option;
+	}
+
+	abstract Manager create();
+
+	/* The manager of this domain owned by the calling thread. */
+	public Manager manager() {
+		return managers.get();
+	}
+
+	public static Domain parse(String option) {
+		for (Domain d : values()) {
+			if (d.option.equals(option)) {
+				return d;
+			}
+		}
+		throw new IllegalArgumentException("Unknown domain " + option);
+	}
+}
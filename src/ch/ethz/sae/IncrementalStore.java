@@ -0,0 +1,314 @@
+package ch.ethz.sae;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import apron.Interval;
+import apron.MpqScalar;
+import apron.Scalar;
+import soot.Body;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+
+/*
+ * Method verdicts and loop head invariants of a class from the previous
+ * run, for incremental re-analysis. A method is reused when its Jimple body
+ * and the class context (the analysis options, the analyser classes and
+ * every statement of the class involving PrinterArray) are unchanged; a
+ * changed method in an unchanged context is seeded with the interval
+ * invariants of its previous loop heads.
+ */
+public class IncrementalStore {
+
+	private static String analyserHash;
+
+	private final File file;
+	private final String context;
+	private final Properties previous = new Properties();
+	private final Properties current = new Properties();
+
+	public IncrementalStore(File dir, SootClass c, String fingerprint) {
+		this.file = new File(dir, c.getName() + ".methods");
+		this.context = contextOf(c, fingerprint);
+
+		if (file.isFile()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					previous.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				System.err.println("Can't read " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/* The previous verdict of the method if neither it nor the class context changed. */
+	public Verdict reuse(SootMethod method) {
+		String sig = method.getSignature();
+		if (!context.equals(previous.getProperty("context"))
+				|| !sha256(method.getActiveBody().toString()).equals(previous.getProperty(sig + ".body"))) {
+			return null;
+		}
+
+		Verdict verdict = new Verdict(sig);
+		verdict.noDivZero = Boolean.parseBoolean(previous.getProperty(sig + ".noDivZero"));
+		verdict.noOutOfBounds = Boolean.parseBoolean(previous.getProperty(sig + ".noOutOfBounds"));
+		record(method, verdict, null);
+		return verdict;
+	}
+
+	/*
+	 * The previous loop head invariants of the method, keyed as by headKeys,
+	 * none if the class context changed.
+	 */
+	public Map<String, Map<String, Interval>> seedsFor(SootMethod method) {
+		String prefix = method.getSignature() + ".head.";
+		Map<String, Map<String, Interval>> seeds = new HashMap<String, Map<String, Interval>>();
+		if (!context.equals(previous.getProperty("context"))) {
+			return seeds;
+		}
+
+		for (String name : previous.stringPropertyNames()) {
+			if (!name.startsWith(prefix)) {
+				continue;
+			}
+			Map<String, Interval> box = new HashMap<String, Interval>();
+			for (String bound : previous.getProperty(name).split(",")) {
+				String[] parts = bound.split(":");
+				if (parts.length == 3) {
+					box.put(parts[0], interval(parts[1], parts[2]));
+				}
+			}
+			seeds.put(name.substring(prefix.length()), box);
+		}
+		return seeds;
+	}
+
+	/* Remember the outcome of a method; invariants are null when it was reused. */
+	public synchronized void record(SootMethod method, Verdict verdict,
+			Map<String, Map<String, Interval>> invariants) {
+		String sig = method.getSignature();
+		current.setProperty(sig + ".body", sha256(method.getActiveBody().toString()));
+		current.setProperty(sig + ".noDivZero", String.valueOf(verdict.noDivZero));
+		current.setProperty(sig + ".noOutOfBounds", String.valueOf(verdict.noOutOfBounds));
+
+		if (invariants == null) {
+			// carry the invariants of a reused method over
+			String prefix = sig + ".head.";
+			for (String name : previous.stringPropertyNames()) {
+				if (name.startsWith(prefix)) {
+					current.setProperty(name, previous.getProperty(name));
+				}
+			}
+			return;
+		}
+
+		for (Map.Entry<String, Map<String, Interval>> head : invariants.entrySet()) {
+			StringBuilder box = new StringBuilder();
+			for (Map.Entry<String, Interval> var : head.getValue().entrySet()) {
+				if (box.length() > 0) {
+					box.append(',');
+				}
+				box.append(var.getKey()).append(':').append(bound(var.getValue().inf()))
+						.append(':').append(bound(var.getValue().sup()));
+			}
+			current.setProperty(sig + ".head." + head.getKey(), box.toString());
+		}
+	}
+
+	public synchronized void save() {
+		current.setProperty("context", context);
+		try {
+			file.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			try {
+				current.store(out, "incremental analysis state");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Can't write " + file + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Keys identifying loop heads across runs: the text of the head
+	 * statement and its occurrence among the heads with the same text.
+	 */
+	static Map<Unit, String> headKeys(Collection<Unit> heads, Body body) {
+		Map<Unit, String> keys = new LinkedHashMap<Unit, String>();
+		Map<String, Integer> occurrences = new HashMap<String, Integer>();
+		for (Unit u : body.getUnits()) {
+			if (heads.contains(u)) {
+				String text = u.toString();
+				Integer n = occurrences.get(text);
+				n = n == null ? 0 : n + 1;
+				occurrences.put(text, n);
+				keys.put(u, text + "#" + n);
+			}
+		}
+		return keys;
+	}
+
+	private static String contextOf(SootClass c, String fingerprint) {
+		StringBuilder context = new StringBuilder(fingerprint).append('\n').append(analyserHash());
+		for (SootMethod m : c.getMethods()) {
+			for (Unit u : m.getActiveBody().getUnits()) {
+				String text = u.toString();
+				if (text.contains(Analysis.resourceArrayName)) {
+					context.append('\n').append(m.getSignature()).append(": ").append(text);
+				}
+			}
+		}
+		return sha256(context.toString());
+	}
+
+	/*
+	 * Hash of the class files of the analyser, read from where Verifier was
+	 * loaded (a directory or a jar); empty if they can't be read.
+	 */
+	private static synchronized String analyserHash() {
+		if (analyserHash != null) {
+			return analyserHash;
+		}
+		String pkg = Verifier.class.getPackage().getName().replace('.', '/') + "/";
+		Map<String, String> classes = new TreeMap<String, String>();
+		try {
+			File root = new File(Verifier.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			if (root.isDirectory()) {
+				File[] files = new File(root, pkg).listFiles();
+				for (File f : files == null ? new File[0] : files) {
+					if (f.getName().endsWith(".class")) {
+						InputStream in = new FileInputStream(f);
+						try {
+							classes.put(f.getName(), sha256(in));
+						} finally {
+							in.close();
+						}
+					}
+				}
+			} else {
+				JarFile jar = new JarFile(root);
+				try {
+					for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+						JarEntry entry = e.nextElement();
+						if (entry.getName().startsWith(pkg) && entry.getName().endsWith(".class")) {
+							InputStream in = jar.getInputStream(entry);
+							try {
+								classes.put(entry.getName(), sha256(in));
+							} finally {
+								in.close();
+							}
+						}
+					}
+				} finally {
+					jar.close();
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("Can't hash the analyser classes: " + e.getMessage());
+			classes.clear();
+		}
+		analyserHash = classes.isEmpty() ? "" : sha256(classes.toString());
+		return analyserHash;
+	}
+
+	private static String sha256(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n; (n = in.read(buffer)) > 0;) {
+			bytes.write(buffer, 0, n);
+		}
+		try {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray())) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String bound(Scalar s) {
+		if (s.isInfty() < 0) {
+			return "-inf";
+		}
+		if (s.isInfty() > 0) {
+			return "inf";
+		}
+		return s.toString();
+	}
+
+	/*
+	 * Interval of two stored bounds. Fractional bounds are rounded outwards
+	 * and bounds beyond the int range are dropped, which only widens the seed.
+	 */
+	private static Interval interval(String inf, String sup) {
+		Scalar lo = new MpqScalar();
+		Scalar hi = new MpqScalar();
+		lo.setInfty(-1);
+		hi.setInfty(1);
+		try {
+			if (!inf.equals("-inf")) {
+				double v = Math.floor(rational(inf));
+				if (v >= Integer.MIN_VALUE) {
+					lo = new MpqScalar((int) v);
+				}
+			}
+			if (!sup.equals("inf")) {
+				double v = Math.ceil(rational(sup));
+				if (v <= Integer.MAX_VALUE) {
+					hi = new MpqScalar((int) v);
+				}
+			}
+		} catch (NumberFormatException e) {
+			// an unreadable bound is left unconstrained
+		}
+		return new Interval(lo, hi);
+	}
+
+	private static double rational(String s) {
+		int slash = s.indexOf('/');
+		if (slash < 0) {
+			return Double.parseDouble(s);
+		}
+		return Double.parseDouble(s.substring(0, slash)) / Double.parseDouble(s.substring(slash + 1));
+	}
+
+	static String sha256(String text) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			StringBuilder hex = new StringBuilder();
+			for (byte b : md.digest(text.getBytes("UTF-8"))) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
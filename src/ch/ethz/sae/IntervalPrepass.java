@@ -0,0 +1,539 @@
+package ch.ethz.sae;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import soot.Body;
+import soot.IntegerType;
+import soot.Local;
+import soot.Unit;
+import soot.UnitBox;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.BinopExpr;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IntConstant;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.internal.JAddExpr;
+import soot.jimple.internal.JDivExpr;
+import soot.jimple.internal.JEqExpr;
+import soot.jimple.internal.JGeExpr;
+import soot.jimple.internal.JGtExpr;
+import soot.jimple.internal.JIfStmt;
+import soot.jimple.internal.JLeExpr;
+import soot.jimple.internal.JLtExpr;
+import soot.jimple.internal.JMulExpr;
+import soot.jimple.internal.JNeExpr;
+import soot.jimple.internal.JSubExpr;
+import soot.jimple.internal.JimpleLocal;
+import soot.toolkits.graph.UnitGraph;
+import soot.util.Chain;
+
+/*
+ * Interval analysis of the integer locals of a method in plain Java, run
+ * before Apron. It follows the transfer functions of Analysis (see
+ * Transfer) over the units of the method, with every state a long[] of
+ * lower and upper bounds indexed by local. All arrays are allocated up
+ * front, so a transfer function allocates nothing. Long.MIN_VALUE and
+ * Long.MAX_VALUE stand for the infinite bounds, and arithmetic saturates
+ * at them. Like Analysis, it ignores integer overflow.
+ */
+class IntervalPrepass {
+
+	private static final long NEG_INF = Long.MIN_VALUE, POS_INF = Long.MAX_VALUE;
+
+	/* Kinds of unit. */
+	private static final int NOP = 0, CONST = 1, COPY = 2, BINOP = 3, TOP = 4, COND = 5;
+
+	/* Operators of BINOP and comparisons of COND. */
+	private static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3;
+	private static final int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5;
+
+	private final Unit[] units;
+	private final Map<Local, Integer> locals = new HashMap<Local, Integer>();
+	private final int wideningDelay;
+
+	/*
+	 * The compiled units: the local assigned, the operator and two operands,
+	 * each the index of a local or, for index -1, a constant.
+	 */
+	private final int[] kind, target, op, varA, varB;
+	private final long[] constA, constB;
+
+	/* Index of the unit falling through to, -1 for none, and the branch targets. */
+	private final int[] fallSucc;
+	private final int[][] branchSuccs;
+
+	/* Targets of a backward edge, where states are widened. */
+	private final boolean[] widenAt;
+
+	/* State before every unit, valid once reached, and the joins into it. */
+	private final long[][] before;
+	private final boolean[] reached;
+	private final int[] joins;
+	private final boolean[] dirty;
+
+	/* States after the unit being applied; false liveness for a refuted condition. */
+	private final long[] fall, branch;
+	private boolean fallLive, branchLive;
+
+	/* Checks seen and discharged by check. */
+	int checks = 0, discharged = 0;
+
+	IntervalPrepass(Body body, UnitGraph graph, int wideningDelay) {
+		this.wideningDelay = wideningDelay;
+
+		for (Local l : body.getLocals()) {
+			if (l.getType() instanceof IntegerType) {
+				locals.put(l, locals.size());
+			}
+		}
+		int size = 2 * locals.size();
+
+		Chain<Unit> chain = body.getUnits();
+		units = chain.toArray(new Unit[chain.size()]);
+		Map<Unit, Integer> index = new HashMap<Unit, Integer>();
+		for (int i = 0; i < units.length; i++) {
+			index.put(units[i], i);
+		}
+
+		kind = new int[units.length];
+		target = new int[units.length];
+		op = new int[units.length];
+		varA = new int[units.length];
+		varB = new int[units.length];
+		constA = new long[units.length];
+		constB = new long[units.length];
+		fallSucc = new int[units.length];
+		branchSuccs = new int[units.length][];
+		widenAt = new boolean[units.length];
+		before = new long[units.length][size];
+		reached = new boolean[units.length];
+		joins = new int[units.length];
+		dirty = new boolean[units.length];
+		fall = new long[size];
+		branch = new long[size];
+
+		for (int i = 0; i < units.length; i++) {
+			Unit u = units[i];
+			compile(i, u);
+
+			Unit next = chain.getSuccOf(u);
+			fallSucc[i] = u.fallsThrough() && next != null ? index.get(next) : -1;
+			List<UnitBox> boxes = u.getUnitBoxes();
+			branchSuccs[i] = new int[boxes.size()];
+			for (int b = 0; b < boxes.size(); b++) {
+				branchSuccs[i][b] = index.get(boxes.get(b).getUnit());
+			}
+
+			if (fallSucc[i] >= 0 && fallSucc[i] <= i) {
+				widenAt[fallSucc[i]] = true;
+			}
+			for (int s : branchSuccs[i]) {
+				if (s <= i) {
+					widenAt[s] = true;
+				}
+			}
+		}
+
+		for (Unit head : graph.getHeads()) {
+			int h = index.get(head);
+			for (int v = 0; v < size; v += 2) {
+				before[h][v] = NEG_INF;
+				before[h][v + 1] = POS_INF;
+			}
+			reached[h] = true;
+			dirty[h] = true;
+		}
+	}
+
+	/* The same cases as Transfer.compileDef and compileIf. */
+	private void compile(int i, Unit u) {
+		kind[i] = NOP;
+		if (u instanceof DefinitionStmt) {
+			Value left = ((DefinitionStmt) u).getLeftOp();
+			Value right = ((DefinitionStmt) u).getRightOp();
+			if (!locals.containsKey(left)) {
+				return;
+			}
+			target[i] = locals.get(left);
+
+			if (right instanceof IntConstant) {
+				kind[i] = CONST;
+				operand(i, right, true);
+			} else if (right instanceof BinopExpr && operand(i, ((BinopExpr) right).getOp1(), true)
+					&& operand(i, ((BinopExpr) right).getOp2(), false)) {
+				kind[i] = BINOP;
+				if (right instanceof JAddExpr) {
+					op[i] = ADD;
+				} else if (right instanceof JSubExpr) {
+					op[i] = SUB;
+				} else if (right instanceof JMulExpr) {
+					op[i] = MUL;
+				} else if (right instanceof JDivExpr) {
+					op[i] = DIV;
+				} else {
+					kind[i] = TOP;
+				}
+			} else if (!(right instanceof BinopExpr) && operand(i, right, true)) {
+				kind[i] = COPY;
+			} else {
+				kind[i] = TOP;
+			}
+		} else if (u instanceof JIfStmt) {
+			Value condition = ((JIfStmt) u).getCondition();
+			if (!(condition instanceof BinopExpr) || !operand(i, ((BinopExpr) condition).getOp1(), true)
+					|| !operand(i, ((BinopExpr) condition).getOp2(), false)) {
+				return;
+			}
+			kind[i] = COND;
+			if (condition instanceof JEqExpr) {
+				op[i] = EQ;
+			} else if (condition instanceof JNeExpr) {
+				op[i] = NE;
+			} else if (condition instanceof JLtExpr) {
+				op[i] = LT;
+			} else if (condition instanceof JLeExpr) {
+				op[i] = LE;
+			} else if (condition instanceof JGtExpr) {
+				op[i] = GT;
+			} else if (condition instanceof JGeExpr) {
+				op[i] = GE;
+			} else {
+				kind[i] = NOP;
+			}
+		}
+	}
+
+	/* Record an int constant or tracked local as operand, false for anything else. */
+	private boolean operand(int i, Value val, boolean first) {
+		int var = -1;
+		long value = 0;
+		if (val instanceof IntConstant) {
+			value = ((IntConstant) val).value;
+		} else if (locals.containsKey(val)) {
+			var = locals.get(val);
+		} else {
+			return false;
+		}
+		if (first) {
+			varA[i] = var;
+			constA[i] = value;
+		} else {
+			varB[i] = var;
+			constB[i] = value;
+		}
+		return true;
+	}
+
+	/* Iterate over the units in order until no state changes. */
+	void run() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < units.length; i++) {
+				if (dirty[i]) {
+					dirty[i] = false;
+					changed = true;
+					apply(i);
+				}
+			}
+		}
+	}
+
+	private void apply(int i) {
+		long[] in = before[i];
+		System.arraycopy(in, 0, fall, 0, in.length);
+		fallLive = true;
+		branchLive = true;
+
+		int t = 2 * target[i];
+		switch (kind[i]) {
+		case CONST:
+			fall[t] = constA[i];
+			fall[t + 1] = constA[i];
+			break;
+		case COPY:
+			fall[t] = lo(in, varA[i], constA[i]);
+			fall[t + 1] = hi(in, varA[i], constA[i]);
+			break;
+		case BINOP:
+			binop(i, in, t);
+			break;
+		case TOP:
+			fall[t] = NEG_INF;
+			fall[t + 1] = POS_INF;
+			break;
+		case COND:
+			System.arraycopy(in, 0, branch, 0, in.length);
+			branchLive = refine(branch, op[i], i);
+			fallLive = refine(fall, negate(op[i]), i);
+			break;
+		default:
+			break;
+		}
+
+		if (fallLive && fallSucc[i] >= 0) {
+			flowInto(fallSucc[i], fall);
+		}
+		long[] out = kind[i] == COND ? branch : fall;
+		if (kind[i] != COND || branchLive) {
+			for (int s : branchSuccs[i]) {
+				flowInto(s, out);
+			}
+		}
+	}
+
+	private void binop(int i, long[] in, int t) {
+		long al = lo(in, varA[i], constA[i]), ah = hi(in, varA[i], constA[i]);
+		long bl = lo(in, varB[i], constB[i]), bh = hi(in, varB[i], constB[i]);
+		switch (op[i]) {
+		case ADD:
+			fall[t] = add(al, bl, NEG_INF);
+			fall[t + 1] = add(ah, bh, POS_INF);
+			break;
+		case SUB:
+			fall[t] = add(al, neg(bh), NEG_INF);
+			fall[t + 1] = add(ah, neg(bl), POS_INF);
+			break;
+		case MUL:
+			fall[t] = Math.min(Math.min(mul(al, bl), mul(al, bh)), Math.min(mul(ah, bl), mul(ah, bh)));
+			fall[t + 1] = Math.max(Math.max(mul(al, bl), mul(al, bh)), Math.max(mul(ah, bl), mul(ah, bh)));
+			break;
+		default:
+			// a divisor that may be zero leaves nothing known, the checks report it
+			if (bl <= 0 && bh >= 0) {
+				fall[t] = NEG_INF;
+				fall[t + 1] = POS_INF;
+			} else {
+				fall[t] = Math.min(Math.min(div(al, bl, NEG_INF), div(al, bh, NEG_INF)),
+						Math.min(div(ah, bl, NEG_INF), div(ah, bh, NEG_INF)));
+				fall[t + 1] = Math.max(Math.max(div(al, bl, POS_INF), div(al, bh, POS_INF)),
+						Math.max(div(ah, bl, POS_INF), div(ah, bh, POS_INF)));
+			}
+			break;
+		}
+	}
+
+	/*
+	 * Restrict the state to the comparison of the operands of unit i.
+	 * Returns false if the comparison can not hold.
+	 */
+	private boolean refine(long[] s, int cmp, int i) {
+		int a = varA[i], b = varB[i];
+		long al = lo(s, a, constA[i]), ah = hi(s, a, constA[i]);
+		long bl = lo(s, b, constB[i]), bh = hi(s, b, constB[i]);
+
+		switch (cmp) {
+		case EQ:
+			return restrict(s, a, Math.max(al, bl), Math.min(ah, bh))
+					&& restrict(s, b, Math.max(al, bl), Math.min(ah, bh));
+		case NE:
+			// only a constant at a bound of the other side can be excluded
+			if (bl == bh) {
+				return restrict(s, a, al == bl ? add(al, 1, NEG_INF) : al, ah == bh ? add(ah, -1, POS_INF) : ah);
+			}
+			if (al == ah) {
+				return restrict(s, b, bl == al ? add(bl, 1, NEG_INF) : bl, bh == ah ? add(bh, -1, POS_INF) : bh);
+			}
+			return true;
+		case LT:
+			return restrict(s, a, al, Math.min(ah, add(bh, -1, POS_INF)))
+					&& restrict(s, b, Math.max(bl, add(al, 1, NEG_INF)), bh);
+		case LE:
+			return restrict(s, a, al, Math.min(ah, bh)) && restrict(s, b, Math.max(bl, al), bh);
+		case GT:
+			return restrict(s, b, bl, Math.min(bh, add(ah, -1, POS_INF)))
+					&& restrict(s, a, Math.max(al, add(bl, 1, NEG_INF)), ah);
+		default:
+			return restrict(s, b, bl, Math.min(bh, ah)) && restrict(s, a, Math.max(al, bl), ah);
+		}
+	}
+
+	/* Set the bounds of a local, or check those of a constant. False if they are empty. */
+	private static boolean restrict(long[] s, int var, long lo, long hi) {
+		if (lo > hi) {
+			return false;
+		}
+		if (var >= 0) {
+			s[2 * var] = lo;
+			s[2 * var + 1] = hi;
+		}
+		return true;
+	}
+
+	private static int negate(int cmp) {
+		switch (cmp) {
+		case EQ:
+			return NE;
+		case NE:
+			return EQ;
+		case LT:
+			return GE;
+		case LE:
+			return GT;
+		case GT:
+			return LE;
+		default:
+			return LT;
+		}
+	}
+
+	/* Join or, at a widening point past the delay, widen the state into the state before s. */
+	private void flowInto(int s, long[] state) {
+		long[] old = before[s];
+		if (!reached[s]) {
+			System.arraycopy(state, 0, old, 0, state.length);
+			reached[s] = true;
+			dirty[s] = true;
+			return;
+		}
+
+		boolean widen = widenAt[s] && ++joins[s] >= wideningDelay;
+		boolean changed = false;
+		for (int v = 0; v < old.length; v += 2) {
+			if (state[v] < old[v]) {
+				old[v] = widen ? NEG_INF : state[v];
+				changed = true;
+			}
+			if (state[v + 1] > old[v + 1]) {
+				old[v + 1] = widen ? POS_INF : state[v + 1];
+				changed = true;
+			}
+		}
+		if (changed) {
+			dirty[s] = true;
+		}
+	}
+
+	/*
+	 * A verdict for the checks of the method the prepass proves. Divisions
+	 * and sendJob arguments are judged as DivisionByZeroChecker and
+	 * BoundsChecker do; unreachable units hold no failing check.
+	 */
+	Verdict check(String name, AllocationIndex allocations) {
+		Verdict verdict = new Verdict(name);
+		for (int i = 0; i < units.length; i++) {
+			Unit u = units[i];
+			for (ValueBox vb : u.getUseBoxes()) {
+				if (vb.getValue() instanceof JDivExpr) {
+					checks++;
+					if (!reached[i] || divisorNotZero(i, ((JDivExpr) vb.getValue()).getOp2())) {
+						discharged++;
+					} else {
+						verdict.noDivZero = false;
+					}
+				}
+			}
+
+			if (Analysis.isResourceCall(u)) {
+				checks++;
+				InvokeExpr e = ((Stmt) u).getInvokeExpr();
+				if (!reached[i] || withinBounds(i, e.getArg(0), allocations.resourceSitesOf(u), allocations)) {
+					discharged++;
+				} else {
+					verdict.noOutOfBounds = false;
+				}
+			}
+		}
+		return verdict;
+	}
+
+	private boolean divisorNotZero(int i, Value divisor) {
+		if (divisor instanceof IntConstant) {
+			return ((IntConstant) divisor).value != 0;
+		}
+		if (divisor instanceof JimpleLocal) {
+			// other integer types are never proven by the checker, see Analysis.getInterval
+			if (!Analysis.isIntValue(divisor) || !locals.containsKey(divisor)) {
+				return false;
+			}
+			int v = locals.get(divisor);
+			return before[i][2 * v] > 0 || before[i][2 * v + 1] < 0;
+		}
+		return true;
+	}
+
+	private boolean withinBounds(int i, Value arg, List<Object> sites, AllocationIndex allocations) {
+		if (sites.isEmpty()) {
+			return !allocations.unresolvedUnsafe;
+		}
+		for (Object site : sites) {
+			int size = allocations.sizeOf(site);
+			if (arg instanceof IntConstant) {
+				int val = ((IntConstant) arg).value;
+				if (val < 0 || val >= size) {
+					return false;
+				}
+			} else if (!locals.containsKey(arg)) {
+				return false;
+			} else {
+				int v = locals.get(arg);
+				if (before[i][2 * v] < 0 || before[i][2 * v + 1] >= size) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static long lo(long[] s, int var, long value) {
+		return var < 0 ? value : s[2 * var];
+	}
+
+	private static long hi(long[] s, int var, long value) {
+		return var < 0 ? value : s[2 * var + 1];
+	}
+
+	private static long neg(long x) {
+		return x == NEG_INF ? POS_INF : x == POS_INF ? NEG_INF : -x;
+	}
+
+	/* x + y, an infinite bound winning, with round telling which one wins over the other. */
+	private static long add(long x, long y, long round) {
+		boolean neg = x == NEG_INF || y == NEG_INF, pos = x == POS_INF || y == POS_INF;
+		if (neg && pos) {
+			return round;
+		}
+		if (neg || pos) {
+			return neg ? NEG_INF : POS_INF;
+		}
+		long r = x + y;
+		if (((x ^ r) & (y ^ r)) < 0) {
+			return x > 0 ? POS_INF : NEG_INF;
+		}
+		return r;
+	}
+
+	private static long mul(long x, long y) {
+		if (x == 0 || y == 0) {
+			return 0;
+		}
+		boolean negative = (x < 0) != (y < 0);
+		if (x == NEG_INF || x == POS_INF || y == NEG_INF || y == POS_INF) {
+			return negative ? NEG_INF : POS_INF;
+		}
+		long r = x * y;
+		if (r / y != x) {
+			return negative ? NEG_INF : POS_INF;
+		}
+		return r;
+	}
+
+	/* Truncating division by a divisor other than zero. */
+	private static long div(long x, long y, long round) {
+		boolean xInf = x == NEG_INF || x == POS_INF, yInf = y == NEG_INF || y == POS_INF;
+		if (xInf && yInf) {
+			return round;
+		}
+		if (xInf) {
+			return (x < 0) != (y < 0) ? NEG_INF : POS_INF;
+		}
+		if (yInf) {
+			return 0;
+		}
+		return x / y;
+	}
+}
@@ -0,0 +1,139 @@
+package ch.ethz.sae;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Local;
+import soot.RefType;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.NewExpr;
+import soot.jimple.NullConstant;
+import soot.jimple.ReturnStmt;
+import soot.jimple.Stmt;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.ForwardFlowAnalysis;
+
+/*
+ * Flow-sensitive tracking of the PrinterArray allocations (their NewExpr)
+ * each local of a method may point to. Only sound for classes whose
+ * PrinterArrays never leave locals, see confines.
+ */
+public class LocalAllocationSites extends ForwardFlowAnalysis<Unit, HashMap<Local, Set<Value>>> {
+
+	public LocalAllocationSites(UnitGraph g) {
+		super(g);
+		doAnalysis();
+	}
+
+	/*
+	 * Whether every PrinterArray of the class is only held in locals:
+	 * none is read from or written to a field or array, passed to or
+	 * returned from a method, cast or assigned to a wider type.
+	 */
+	public static boolean confines(SootClass c) {
+		for (SootMethod method : c.getMethods()) {
+			for (Unit u : method.retrieveActiveBody().getUnits()) {
+				for (ValueBox vb : u.getUseAndDefBoxes()) {
+					Value val = vb.getValue();
+					if (isResource(val.getType()) && !(val instanceof Local) && !(val instanceof NewExpr)) {
+						return false;
+					}
+				}
+
+				if (u instanceof DefinitionStmt) {
+					Value left = ((DefinitionStmt) u).getLeftOp();
+					Value right = ((DefinitionStmt) u).getRightOp();
+					if (isResource(left.getType()) != isResource(right.getType())
+							&& !(right instanceof NullConstant)) {
+						return false;
+					}
+				}
+				if (u instanceof ReturnStmt && isResource(((ReturnStmt) u).getOp().getType())) {
+					return false;
+				}
+				if (((Stmt) u).containsInvokeExpr()) {
+					for (Value arg : ((Stmt) u).getInvokeExpr().getArgs()) {
+						if (isResource(arg.getType())) {
+							return false;
+						}
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isResource(Type t) {
+		return t instanceof RefType && ((RefType) t).getClassName().equals(Analysis.resourceArrayName);
+	}
+
+	/* The allocations the local may point to before the unit. */
+	public Set<Value> sitesOf(Local local, Unit u) {
+		Set<Value> sites = getFlowBefore(u).get(local);
+		return sites == null ? new HashSet<Value>() : sites;
+	}
+
+	@Override
+	protected void flowThrough(HashMap<Local, Set<Value>> in, Unit u, HashMap<Local, Set<Value>> out) {
+		copy(in, out);
+		if (!(u instanceof DefinitionStmt)) {
+			return;
+		}
+
+		Value left = ((DefinitionStmt) u).getLeftOp();
+		Value right = ((DefinitionStmt) u).getRightOp();
+		if (!(left instanceof Local) || !isResource(left.getType())) {
+			return;
+		}
+
+		Set<Value> sites = new HashSet<Value>();
+		if (right instanceof NewExpr) {
+			sites.add(right);
+		} else if (right instanceof Local && in.containsKey(right)) {
+			sites.addAll(in.get(right));
+		}
+		out.put((Local) left, sites);
+	}
+
+	@Override
+	protected HashMap<Local, Set<Value>> newInitialFlow() {
+		return new HashMap<Local, Set<Value>>();
+	}
+
+	@Override
+	protected HashMap<Local, Set<Value>> entryInitialFlow() {
+		return new HashMap<Local, Set<Value>>();
+	}
+
+	@Override
+	protected void merge(HashMap<Local, Set<Value>> in1, HashMap<Local, Set<Value>> in2,
+			HashMap<Local, Set<Value>> out) {
+		copy(in1, out);
+		for (Map.Entry<Local, Set<Value>> e : in2.entrySet()) {
+			if (out.containsKey(e.getKey())) {
+				out.get(e.getKey()).addAll(e.getValue());
+			} else {
+				out.put(e.getKey(), new HashSet<Value>(e.getValue()));
+			}
+		}
+	}
+
+	@Override
+	protected void copy(HashMap<Local, Set<Value>> source, HashMap<Local, Set<Value>> dest) {
+		if (source == dest) {
+			return;
+		}
+		dest.clear();
+		for (Map.Entry<Local, Set<Value>> e : source.entrySet()) {
+			dest.put(e.getKey(), new HashSet<Value>(e.getValue()));
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package ch.ethz.sae;
+
+import java.util.Collection;
+
+import soot.Body;
+import soot.jimple.toolkits.annotation.logic.Loop;
+import soot.toolkits.graph.BlockGraph;
+import soot.toolkits.graph.BriefBlockGraph;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.LoopNestTree;
+import soot.toolkits.graph.UnitGraph;
+
+/*
+ * The graphs of a method an analysis needs: its units, its loops and,
+ * with --blocks, its basic blocks. Finding the loops goes through the
+ * exceptional unit graph and so through singletons of Soot that are not
+ * thread safe, so the graphs are built before the methods are analysed in
+ * parallel.
+ */
+public class MethodGraphs {
+
+	final UnitGraph units;
+	final Collection<Loop> loops;
+	final BlockGraph blocks; // null when not built
+
+	public MethodGraphs(Body body, boolean withBlocks) {
+		this(new BriefUnitGraph(body), new LoopNestTree(body), withBlocks ? new BriefBlockGraph(body) : null);
+	}
+
+	MethodGraphs(UnitGraph units, Collection<Loop> loops, BlockGraph blocks) {
+		this.units = units;
+		this.loops = loops;
+		this.blocks = blocks;
+	}
+}
@@ -0,0 +1,251 @@
+package ch.ethz.sae;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Counters collected during a run, printed with --stats. */
+public class Metrics {
+
+	/* Apron queries made to check sendJob arguments against their bounds. */
+	public static final AtomicLong boundsQueries = new AtomicLong();
+
+	/* Comparisons of states in AWrapper.equals done in Apron, and skipped ones. */
+	public static final AtomicLong nativeComparisons = new AtomicLong();
+	public static final AtomicLong skippedComparisons = new AtomicLong();
+
+	/* Transfer functions applied and native states allocated by all analyses. */
+	public static final AtomicLong transfers = new AtomicLong();
+	public static final AtomicLong nativeStates = new AtomicLong();
+
+	/* Milliseconds spent resolving allocation sites locally and with Spark. */
+	public static final AtomicLong localPointsToMillis = new AtomicLong();
+	public static final AtomicLong sparkPointsToMillis = new AtomicLong();
+
+	/*
+	 * Nanoseconds spent loading classes, building bodies, computing fixpoints
+	 * and running checkers, the last two summed over all threads.
+	 */
+	public static final AtomicLong loadNanos = new AtomicLong();
+	public static final AtomicLong bodyNanos = new AtomicLong();
+	public static final AtomicLong fixpointNanos = new AtomicLong();
+	public static final AtomicLong checkNanos = new AtomicLong();
+
+	/* Methods reused, warm-started or analysed from scratch with --incremental. */
+	public static final AtomicLong reusedMethods = new AtomicLong();
+	public static final AtomicLong warmMethods = new AtomicLong();
+	public static final AtomicLong scratchMethods = new AtomicLong();
+
+	/* Warm starts whose seeds did not hold or did not prove the method, analysed again. */
+	public static final AtomicLong droppedSeeds = new AtomicLong();
+
+	/*
+	 * Checks seen and discharged by the interval pre-pass, methods it
+	 * settled without Apron and the nanoseconds it took.
+	 */
+	public static final AtomicLong prepassChecks = new AtomicLong();
+	public static final AtomicLong prepassDischarged = new AtomicLong();
+	public static final AtomicLong prepassMethods = new AtomicLong();
+	public static final AtomicLong prepassNanos = new AtomicLong();
+
+	/* Native Apron operations, counted where the analyser calls them. */
+	public enum ApronOp {
+		JOIN("joinCopy"), JOIN_IN_PLACE("join"), WIDENING("widening"), MEET("meetCopy"), ASSIGN("assign"),
+		IS_INCLUDED("isIncluded"), SATISFY("satisfy"), GET_BOUND("getBound");
+
+		final String call;
+
+		ApronOp(String call) {
+			this.call = call;
+		}
+	}
+
+	private static final AtomicLong[] apronCalls = new AtomicLong[ApronOp.values().length];
+	static {
+		for (int i = 0; i < apronCalls.length; i++) {
+			apronCalls[i] = new AtomicLong();
+		}
+	}
+
+	public static void count(ApronOp op) {
+		apronCalls[op.ordinal()].incrementAndGet();
+	}
+
+	public static void count(ApronOp op, int n) {
+		apronCalls[op.ordinal()].addAndGet(n);
+	}
+
+	/* One analysis of a method (a domain and pack), kept with --metrics. */
+	public static class MethodRecord {
+		final String method;
+		final String domain;
+		final long fixpointNanos;
+		final int iterations;
+		final int widenings;
+		String engine;
+		int peakLiveStates;
+		long peakNativeSize;
+		final Map<String, Long> checkerNanos = new LinkedHashMap<String, Long>();
+
+		public MethodRecord(String method, Domain domain, long fixpointNanos, int iterations, int widenings) {
+			this.method = method;
+			this.domain = domain.option;
+			this.fixpointNanos = fixpointNanos;
+			this.iterations = iterations;
+			this.widenings = widenings;
+		}
+	}
+
+	private static final List<MethodRecord> methods = new ArrayList<MethodRecord>();
+
+	public static void record(MethodRecord r) {
+		synchronized (methods) {
+			methods.add(r);
+		}
+	}
+
+	/* Analyses that ran out of their budget, as "method (domain): reason". */
+	private static final List<String> budgetHits = new ArrayList<String>();
+
+	public static void budgetHit(String hit) {
+		synchronized (budgetHits) {
+			budgetHits.add(hit);
+		}
+	}
+
+	/* Forget the method records and budget hits, after each request of a long-running server. */
+	public static void clearRecords() {
+		synchronized (methods) {
+			methods.clear();
+		}
+		synchronized (budgetHits) {
+			budgetHits.clear();
+		}
+	}
+
+	public static void printBudgetHits(PrintStream out) {
+		synchronized (budgetHits) {
+			for (String hit : budgetHits) {
+				out.println("budget exceeded: " + hit);
+			}
+		}
+	}
+
+	/* Methods whose verdict was settled in each domain when escalating. */
+	private static final AtomicLong[] settledIn = new AtomicLong[Domain.values().length];
+	static {
+		for (int i = 0; i < settledIn.length; i++) {
+			settledIn[i] = new AtomicLong();
+		}
+	}
+
+	public static void settled(Domain domain) {
+		settledIn[domain.ordinal()].incrementAndGet();
+	}
+
+	public static void printTiers(PrintStream out) {
+		for (Domain d : Domain.values()) {
+			out.println("methods settled with " + d.option + ": " + settledIn[d.ordinal()].get());
+		}
+	}
+
+	public static void printIncremental(PrintStream out) {
+		out.println("methods reused: " + reusedMethods.get() + ", warm-started: " + warmMethods.get()
+				+ ", from scratch: " + scratchMethods.get() + " (" + droppedSeeds.get() + " after a dropped seed)");
+	}
+
+	public static void printPrepass(PrintStream out) {
+		long checks = prepassChecks.get();
+		out.println("interval pre-pass: " + prepassDischarged.get() + " of " + checks + " checks discharged ("
+				+ (checks == 0 ? 100 : prepassDischarged.get() * 100 / checks) + "%), " + prepassMethods.get()
+				+ " methods without Apron");
+	}
+
+	public static void printTiming(PrintStream out) {
+		out.println("class loading: " + loadNanos.get() / 1000000 + " ms");
+		out.println("body construction: " + bodyNanos.get() / 1000000 + " ms");
+		out.println("points-to: " + (localPointsToMillis.get() + sparkPointsToMillis.get()) + " ms");
+		out.println("interval pre-pass: " + prepassNanos.get() / 1000000 + " ms");
+		out.println("fixpoints: " + fixpointNanos.get() / 1000000 + " ms");
+		out.println("checks: " + checkNanos.get() / 1000000 + " ms");
+	}
+
+	public static void print(PrintStream out) {
+		out.println("bounds queries: " + boundsQueries.get());
+		out.println("native state comparisons: " + nativeComparisons.get());
+		out.println("skipped state comparisons: " + skippedComparisons.get());
+		out.println("transfers: " + transfers.get());
+		out.println("native states allocated: " + nativeStates.get());
+		out.println("points-to time: " + localPointsToMillis.get() + " ms local, " + sparkPointsToMillis.get()
+				+ " ms spark");
+	}
+
+	/* All phases, Apron calls, counters and method records as a JSON object. */
+	public static void writeJson(PrintStream out) {
+		out.println("{");
+		out.println("  \"phases\": {");
+		out.println("    \"classLoadingMs\": " + loadNanos.get() / 1000000 + ",");
+		out.println("    \"bodyConstructionMs\": " + bodyNanos.get() / 1000000 + ",");
+		out.println("    \"sparkMs\": " + sparkPointsToMillis.get() + ",");
+		out.println("    \"localPointsToMs\": " + localPointsToMillis.get() + ",");
+		out.println("    \"prepassMs\": " + prepassNanos.get() / 1000000 + ",");
+		out.println("    \"fixpointsMs\": " + fixpointNanos.get() / 1000000 + ",");
+		out.println("    \"checksMs\": " + checkNanos.get() / 1000000);
+		out.println("  },");
+
+		out.println("  \"apronCalls\": {");
+		for (ApronOp op : ApronOp.values()) {
+			out.println("    \"" + op.call + "\": " + apronCalls[op.ordinal()].get()
+					+ (op.ordinal() < apronCalls.length - 1 ? "," : ""));
+		}
+		out.println("  },");
+
+		out.println("  \"counters\": {");
+		out.println("    \"transfers\": " + transfers.get() + ",");
+		out.println("    \"nativeStates\": " + nativeStates.get() + ",");
+		out.println("    \"boundsQueries\": " + boundsQueries.get() + ",");
+		out.println("    \"nativeComparisons\": " + nativeComparisons.get() + ",");
+		out.println("    \"skippedComparisons\": " + skippedComparisons.get() + ",");
+		out.println("    \"prepassChecks\": " + prepassChecks.get() + ",");
+		out.println("    \"prepassDischarged\": " + prepassDischarged.get() + ",");
+		out.println("    \"prepassMethods\": " + prepassMethods.get());
+		out.println("  },");
+
+		out.println("  \"budgetHits\": [");
+		synchronized (budgetHits) {
+			for (int i = 0; i < budgetHits.size(); i++) {
+				out.println("    " + quote(budgetHits.get(i)) + (i < budgetHits.size() - 1 ? "," : ""));
+			}
+		}
+		out.println("  ],");
+
+		out.println("  \"methods\": [");
+		synchronized (methods) {
+			for (int i = 0; i < methods.size(); i++) {
+				MethodRecord r = methods.get(i);
+				StringBuilder checkers = new StringBuilder();
+				for (Map.Entry<String, Long> e : r.checkerNanos.entrySet()) {
+					if (checkers.length() > 0) {
+						checkers.append(", ");
+					}
+					checkers.append(quote(e.getKey())).append(": ").append(e.getValue() / 1000);
+				}
+				out.println("    {\"method\": " + quote(r.method) + ", \"domain\": " + quote(r.domain)
+						+ ", \"engine\": " + quote(r.engine) + ", \"fixpointUs\": " + r.fixpointNanos / 1000
+						+ ", \"iterations\": " + r.iterations
+						+ ", \"widenings\": " + r.widenings + ", \"peakLiveStates\": " + r.peakLiveStates
+						+ ", \"peakNativeSize\": " + r.peakNativeSize + ", \"checkersUs\": {" + checkers + "}}"
+						+ (i < methods.size() - 1 ? "," : ""));
+			}
+		}
+		out.println("  ]");
+		out.println("}");
+	}
+
+	private static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
@@ -0,0 +1,71 @@
+package ch.ethz.sae;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashMap;
+import java.util.Map;
+
+import apron.Abstract1;
+import apron.ApronException;
+import apron.Manager;
+
+/*
+ * The native Apron states allocated by one analysis, for --stats and
+ * --metrics. japron frees a state only in its finalizer, so every state is
+ * followed by a phantom reference, which is enqueued once the state has
+ * been finalized and its native memory freed. How many are alive therefore
+ * depends on the collector; the cap of --native-cap is checked against the
+ * states the analysis holds instead (Analysis.heldStates).
+ */
+class NativeStates {
+
+	private final Manager man;
+
+	private final ReferenceQueue<Abstract1> queue = new ReferenceQueue<Abstract1>();
+	private final Map<Reference<? extends Abstract1>, Integer> live = new HashMap<Reference<? extends Abstract1>, Integer>();
+	private long liveSize = 0;
+
+	/* Most states alive at once and their largest total size. */
+	int peakLive = 0;
+	long peakSize = 0;
+
+	/* Track the states of an analysis with the given manager, summing the sizes Apron reports. */
+	NativeStates(Manager man) {
+		this.man = man;
+	}
+
+	void allocated(Abstract1 state) {
+		if (state == null) {
+			return;
+		}
+		poll();
+
+		int size = 0;
+		try {
+			size = state.getSize(man);
+		} catch (ApronException e) {
+			e.printStackTrace();
+		}
+		live.put(new PhantomReference<Abstract1>(state, queue), size);
+		liveSize += size;
+
+		peakLive = Math.max(peakLive, live.size());
+		peakSize = Math.max(peakSize, liveSize);
+	}
+
+	/* Forget the states whose native memory has been freed. */
+	private void poll() {
+		Reference<? extends Abstract1> ref;
+		while ((ref = queue.poll()) != null) {
+			forget(ref);
+		}
+	}
+
+	private void forget(Reference<? extends Abstract1> ref) {
+		Integer size = live.remove(ref);
+		if (size != null) {
+			liveSize -= size;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package ch.ethz.sae;
+
+import apron.Environment;
+import apron.MpqScalar;
+import apron.Tcons1;
+import apron.Texpr1BinNode;
+import apron.Texpr1CstNode;
+import apron.Texpr1Intern;
+import apron.Texpr1Node;
+import apron.Texpr1VarNode;
+
+import soot.Local;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.BinopExpr;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IntConstant;
+import soot.jimple.Stmt;
+import soot.jimple.internal.JAddExpr;
+import soot.jimple.internal.JDivExpr;
+import soot.jimple.internal.JEqExpr;
+import soot.jimple.internal.JGeExpr;
+import soot.jimple.internal.JGtExpr;
+import soot.jimple.internal.JIfStmt;
+import soot.jimple.internal.JLeExpr;
+import soot.jimple.internal.JLtExpr;
+import soot.jimple.internal.JMulExpr;
+import soot.jimple.internal.JNeExpr;
+import soot.jimple.internal.JSubExpr;
+import soot.jimple.internal.JimpleLocal;
+
+/*
+ * The transfer function of one statement, compiled once per analysis: the
+ * Apron expression assigned by a definition, or the constraints a condition
+ * adds on its fall-through and branch. Analysis.flowThrough only applies it.
+ */
+final class Transfer {
+
+	enum Kind {
+		/* The state passes through unchanged. */
+		IDENTITY,
+		/* var is assigned expr. */
+		ASSIGN,
+		/* Nothing is known about var afterwards. */
+		FORGET,
+		/* fall holds on the fall-through, branch on the jump. */
+		CONDITION
+	}
+
+	private static final Transfer IDENTITY = new Transfer(Kind.IDENTITY, null, null, null, null, false);
+
+	final Kind kind;
+	final String var;
+	final Texpr1Intern expr;
+	final Tcons1 fall, branch;
+
+	/* A sendJob call whose state the BoundsChecker reads. */
+	final boolean resourceCall;
+
+	private Transfer(Kind kind, String var, Texpr1Intern expr, Tcons1 fall, Tcons1 branch, boolean resourceCall) {
+		this.kind = kind;
+		this.var = var;
+		this.expr = expr;
+		this.fall = fall;
+		this.branch = branch;
+		this.resourceCall = resourceCall;
+	}
+
+	static Transfer compile(Unit u, Environment env) {
+		Stmt s = (Stmt) u;
+		if (s instanceof DefinitionStmt) {
+			return compileDef(((DefinitionStmt) s).getLeftOp(), ((DefinitionStmt) s).getRightOp(), env);
+		}
+		if (s instanceof JIfStmt) {
+			return compileIf(((JIfStmt) s).getCondition(), env);
+		}
+		if (Analysis.isResourceCall(s)) {
+			return new Transfer(Kind.IDENTITY, null, null, null, null, true);
+		}
+		return IDENTITY;
+	}
+
+	/*
+	 * Assignments to anything but a tracked local, such as arrays, fields,
+	 * doubles and references, do not change the integer state.
+	 */
+	private static Transfer compileDef(Value left, Value right, Environment env) {
+		// You do not need to handle these cases:
+		if (!(left instanceof JimpleLocal)) {
+			Analysis.unhandled("1: Assignment to non-variables is not handled.");
+		}
+		if (!tracks(left, env)) {
+			return IDENTITY;
+		}
+		String var = ((JimpleLocal) left).getName();
+
+		Texpr1Node expr = null;
+		// case 1 and 2: 'right' is a constant or a local
+		if (right instanceof IntConstant || right instanceof JimpleLocal) {
+			expr = toTexpr(right, env);
+		}
+		// case 3: 'right' is a binary expression
+		else if (right instanceof BinopExpr) {
+			Texpr1Node op1 = toTexpr(((BinopExpr) right).getOp1(), env);
+			Texpr1Node op2 = toTexpr(((BinopExpr) right).getOp2(), env);
+
+			if (op1 != null && op2 != null) {
+				if (right instanceof JMulExpr) {
+					expr = new Texpr1BinNode(Texpr1BinNode.OP_MUL, op1, op2);
+				} else if (right instanceof JSubExpr) {
+					expr = new Texpr1BinNode(Texpr1BinNode.OP_SUB, op1, op2);
+				} else if (right instanceof JAddExpr) {
+					expr = new Texpr1BinNode(Texpr1BinNode.OP_ADD, op1, op2);
+				} else if (right instanceof JDivExpr) {
+					expr = new Texpr1BinNode(Texpr1BinNode.OP_DIV, op1, op2);
+				} else {
+					Analysis.unhandled("Invalid Binary Expression: " + right);
+				}
+			}
+		}
+
+		// case 4: otherwise nothing is known about 'left'
+		if (expr == null) {
+			return new Transfer(Kind.FORGET, var, null, null, null, false);
+		}
+		return new Transfer(Kind.ASSIGN, var, new Texpr1Intern(env, expr), null, null, false);
+	}
+
+	private static Transfer compileIf(Value condition, Environment env) {
+		if (!(condition instanceof BinopExpr)) {
+			return IDENTITY;
+		}
+		Texpr1Node l = toTexpr(((BinopExpr) condition).getOp1(), env);
+		Texpr1Node r = toTexpr(((BinopExpr) condition).getOp2(), env);
+
+		// conditions on references or untracked variables do not refine the state
+		if (l == null || r == null) {
+			return IDENTITY;
+		}
+
+		Texpr1Node lr = new Texpr1BinNode(Texpr1BinNode.OP_SUB, l, r);
+		Texpr1Node rl = new Texpr1BinNode(Texpr1BinNode.OP_SUB, r, l);
+
+		// the fall-through gets the negated condition
+		Tcons1 fall, branch;
+		if (condition instanceof JEqExpr) {
+			fall = new Tcons1(env, Tcons1.DISEQ, rl);
+			branch = new Tcons1(env, Tcons1.EQ, rl);
+		} else if (condition instanceof JNeExpr) {
+			fall = new Tcons1(env, Tcons1.EQ, rl);
+			branch = new Tcons1(env, Tcons1.DISEQ, rl);
+		} else if (condition instanceof JGeExpr) {
+			fall = new Tcons1(env, Tcons1.SUP, rl);
+			branch = new Tcons1(env, Tcons1.SUPEQ, lr);
+		} else if (condition instanceof JLeExpr) {
+			fall = new Tcons1(env, Tcons1.SUP, lr);
+			branch = new Tcons1(env, Tcons1.SUPEQ, rl);
+		} else if (condition instanceof JGtExpr) {
+			fall = new Tcons1(env, Tcons1.SUPEQ, rl);
+			branch = new Tcons1(env, Tcons1.SUP, lr);
+		} else if (condition instanceof JLtExpr) {
+			fall = new Tcons1(env, Tcons1.SUPEQ, lr);
+			branch = new Tcons1(env, Tcons1.SUP, rl);
+		} else {
+			return IDENTITY;
+		}
+		return new Transfer(Kind.CONDITION, null, null, fall, branch, false);
+	}
+
+	private static boolean tracks(Value val, Environment env) {
+		return val instanceof Local && env.hasVar(((Local) val).getName());
+	}
+
+	/* Apron expression of an int constant or a tracked local, null for anything else. */
+	private static Texpr1Node toTexpr(Value val, Environment env) {
+		if (val instanceof IntConstant) {
+			return new Texpr1CstNode(new MpqScalar(((IntConstant) val).value));
+		}
+		if (tracks(val, env)) {
+			return new Texpr1VarNode(((JimpleLocal) val).getName());
+		}
+		return null;
+	}
+}
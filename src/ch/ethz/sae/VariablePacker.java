@@ -0,0 +1,174 @@
+package ch.ethz.sae;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Body;
+import soot.IntegerType;
+import soot.Local;
+import soot.SootClass;
+import soot.SootField;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IfStmt;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.internal.AbstractBinopExpr;
+import soot.jimple.internal.JDivExpr;
+
+/*
+ * Pre-pass computing the integer locals of a method that may influence a
+ * divisor or a sendJob argument: a backward slice over the definitions and
+ * the conditions of the method. The relevant locals are grouped into packs
+ * of locals that are never related to each other, each pack can be
+ * analysed in its own, smaller environment.
+ */
+public class VariablePacker {
+
+	/* Locals defined from other locals, and locals compared in conditions. */
+	private final List<List<String>> definitions = new ArrayList<List<String>>();
+	private final List<List<String>> conditions = new ArrayList<List<String>>();
+
+	private final Set<String> relevant = new LinkedHashSet<String>();
+	private final Map<String, String> parent = new HashMap<String, String>();
+
+	public VariablePacker(Body body) {
+		for (Unit u : body.getUnits()) {
+			Stmt s = (Stmt) u;
+
+			if (s instanceof DefinitionStmt && isIntLocal(((DefinitionStmt) s).getLeftOp())) {
+				List<String> vars = new ArrayList<String>();
+				vars.add(((Local) ((DefinitionStmt) s).getLeftOp()).getName());
+				addIntLocals(((DefinitionStmt) s).getRightOp().getUseBoxes(), vars);
+				if (isIntLocal(((DefinitionStmt) s).getRightOp())) {
+					vars.add(((Local) ((DefinitionStmt) s).getRightOp()).getName());
+				}
+				definitions.add(vars);
+			} else if (s instanceof IfStmt && ((IfStmt) s).getCondition() instanceof AbstractBinopExpr) {
+				List<String> vars = new ArrayList<String>();
+				addIntLocals(((IfStmt) s).getCondition().getUseBoxes(), vars);
+				conditions.add(vars);
+			}
+
+			// the seeds of the slice
+			for (ValueBox vb : s.getUseBoxes()) {
+				Value v = vb.getValue();
+				if (v instanceof JDivExpr && isIntLocal(((JDivExpr) v).getOp2())) {
+					relevant.add(((Local) ((JDivExpr) v).getOp2()).getName());
+				}
+			}
+			if (s.containsInvokeExpr()) {
+				InvokeExpr e = s.getInvokeExpr();
+				if (e.getMethodRef().name().equals(Analysis.functionName) && e.getArgCount() == 1
+						&& isIntLocal(e.getArg(0))) {
+					relevant.add(((Local) e.getArg(0)).getName());
+				}
+			}
+		}
+
+		// a definition of a relevant local makes its operands relevant,
+		// a condition on a relevant local makes the compared locals relevant
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (List<String> vars : definitions) {
+				if (relevant.contains(vars.get(0))) {
+					changed |= relevant.addAll(vars);
+				}
+			}
+			for (List<String> vars : conditions) {
+				for (String var : vars) {
+					if (relevant.contains(var)) {
+						changed |= relevant.addAll(vars);
+						break;
+					}
+				}
+			}
+		}
+
+		for (String var : relevant) {
+			parent.put(var, var);
+		}
+		for (List<String> vars : definitions) {
+			if (relevant.contains(vars.get(0))) {
+				union(vars);
+			}
+		}
+		for (List<String> vars : conditions) {
+			if (!vars.isEmpty() && relevant.contains(vars.get(0))) {
+				union(vars);
+			}
+		}
+	}
+
+	/* The locals that may influence a divisor or a sendJob argument. */
+	public Set<String> getRelevant() {
+		return relevant;
+	}
+
+	/* The relevant locals split into independent packs. */
+	public List<Set<String>> getPacks() {
+		Map<String, Set<String>> packs = new LinkedHashMap<String, Set<String>>();
+		for (String var : relevant) {
+			String root = find(var);
+			Set<String> pack = packs.get(root);
+			if (pack == null) {
+				pack = new LinkedHashSet<String>();
+				packs.put(root, pack);
+			}
+			pack.add(var);
+		}
+		return new ArrayList<Set<String>>(packs.values());
+	}
+
+	/* Number of variables in the environment of an unpruned analysis. */
+	public static int environmentSize(Body body, SootClass c) {
+		int size = 0;
+		for (Local l : body.getLocals()) {
+			if (l.getType() instanceof IntegerType) {
+				size++;
+			}
+		}
+		for (SootField f : c.getFields()) {
+			if (f.getType() instanceof IntegerType) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	private static boolean isIntLocal(Value v) {
+		return v instanceof Local && v.getType() instanceof IntegerType;
+	}
+
+	private static void addIntLocals(List<ValueBox> boxes, List<String> vars) {
+		for (ValueBox vb : boxes) {
+			if (isIntLocal(vb.getValue())) {
+				vars.add(((Local) vb.getValue()).getName());
+			}
+		}
+	}
+
+	private void union(List<String> vars) {
+		String root = find(vars.get(0));
+		for (String var : vars) {
+			parent.put(find(var), root);
+		}
+	}
+
+	private String find(String var) {
+		String p = parent.get(var);
+		while (!p.equals(var)) {
+			var = p;
+			p = parent.get(var);
+		}
+		return p;
+	}
+}
@@ -0,0 +1,41 @@
+package ch.ethz.sae;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Result of verifying a class (or a single method of it). */
+public class Verdict {
+
+	public final String name;
+	public boolean noDivZero = true;
+	public boolean noOutOfBounds = true;
+
+	/* Verdicts of the methods combined into this one. */
+	public final List<Verdict> methods = new ArrayList<Verdict>();
+
+	public Verdict(String name) {
+		this.name = name;
+	}
+
+	/* Combine the verdict of a method into the verdict of its class. */
+	public void combine(Verdict other) {
+		noDivZero &= other.noDivZero;
+		noOutOfBounds &= other.noOutOfBounds;
+		methods.add(other);
+	}
+
+	public void print(PrintStream out) {
+		if (noDivZero) {
+			out.println(name + " NO_DIV_ZERO");
+		} else {
+			out.println(name + " MAY_DIV_ZERO");
+		}
+
+		if (noOutOfBounds) {
+			out.println(name + " NO_OUT_OF_BOUNDS");
+		} else {
+			out.println(name + " MAY_OUT_OF_BOUNDS");
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package ch.ethz.sae;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+
+/*
+ * On-disk cache of class verdicts. The key of a class hashes the analyser
+ * configuration and the bytes of the class file together with those of
+ * every application class it depends on, transitively (PrinterArray and
+ * the analyser itself included). Application classes are the ones found
+ * in the class path directories or the analysed jars, library jars such
+ * as Soot and the JDK are not hashed.
+ */
+public class VerdictCache {
+
+	private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;<>]+);");
+
+	private final File dir;
+	private final List<File> roots;
+	private final String configuration;
+	private final Map<String, String> keys = new HashMap<String, String>();
+
+	public VerdictCache(File dir, List<File> roots, String configuration) {
+		this.dir = dir;
+		this.roots = roots;
+		this.configuration = configuration;
+	}
+
+	/* The cached verdict of the class, null if it is missing or outdated. */
+	public Verdict lookup(String className) {
+		File file = fileOf(className);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		Properties p = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				p.load(in);
+			} finally {
+				in.close();
+			}
+			if (!key(className).equals(p.getProperty("key"))) {
+				return null;
+			}
+		} catch (IOException e) {
+			System.err.println("Can't read cache entry " + file + ": " + e.getMessage());
+			return null;
+		}
+
+		Verdict verdict = new Verdict(className);
+		for (String name : new TreeSet<String>(p.stringPropertyNames())) {
+			if (name.startsWith("method.") && name.endsWith(".noDivZero")) {
+				String method = name.substring("method.".length(), name.length() - ".noDivZero".length());
+				Verdict m = new Verdict(method);
+				m.noDivZero = Boolean.parseBoolean(p.getProperty(name));
+				m.noOutOfBounds = Boolean.parseBoolean(p.getProperty("method." + method + ".noOutOfBounds"));
+				verdict.combine(m);
+			}
+		}
+		verdict.noDivZero = Boolean.parseBoolean(p.getProperty("class.noDivZero"));
+		verdict.noOutOfBounds = Boolean.parseBoolean(p.getProperty("class.noOutOfBounds"));
+		return verdict;
+	}
+
+	public void store(Verdict verdict) {
+		Properties p = new Properties();
+		File file = fileOf(verdict.name);
+		try {
+			p.setProperty("key", key(verdict.name));
+			p.setProperty("class.noDivZero", String.valueOf(verdict.noDivZero));
+			p.setProperty("class.noOutOfBounds", String.valueOf(verdict.noOutOfBounds));
+			for (Verdict m : verdict.methods) {
+				p.setProperty("method." + m.name + ".noDivZero", String.valueOf(m.noDivZero));
+				p.setProperty("method." + m.name + ".noOutOfBounds", String.valueOf(m.noOutOfBounds));
+			}
+
+			dir.mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			try {
+				p.store(out, "verdicts of " + verdict.name);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Can't write cache entry " + file + ": " + e.getMessage());
+		}
+	}
+
+	private File fileOf(String className) {
+		return new File(dir, className + ".properties");
+	}
+
+	/* Hash of the configuration and of the class files the verdict depends on. */
+	String key(String className) throws IOException {
+		String key = keys.get(className);
+		if (key != null) {
+			return key;
+		}
+
+		// the class files, in a stable order
+		Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+		Set<String> seen = new TreeSet<String>();
+		Deque<String> todo = new ArrayDeque<String>();
+		todo.add(className);
+		todo.add(Analysis.resourceArrayName);
+		todo.add(Verifier.class.getName());
+
+		while (!todo.isEmpty()) {
+			String name = todo.poll();
+			if (!seen.add(name)) {
+				continue;
+			}
+			byte[] bytes = read(name);
+			if (bytes != null) {
+				classes.put(name, bytes);
+				todo.addAll(dependencies(bytes));
+			}
+		}
+
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		md.update(configuration.getBytes("UTF-8"));
+		for (Map.Entry<String, byte[]> c : classes.entrySet()) {
+			md.update(c.getKey().getBytes("UTF-8"));
+			md.update(c.getValue());
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		key = hex.toString();
+		keys.put(className, key);
+		return key;
+	}
+
+	/* The class file of an application class, null if it is not one. */
+	private byte[] read(String className) throws IOException {
+		String path = className.replace('.', '/') + ".class";
+		for (File root : roots) {
+			if (root.isDirectory()) {
+				File f = new File(root, path);
+				if (f.isFile()) {
+					InputStream in = new FileInputStream(f);
+					try {
+						return readAll(in);
+					} finally {
+						in.close();
+					}
+				}
+			} else if (root.isFile()) {
+				JarFile jar = new JarFile(root);
+				try {
+					ZipEntry entry = jar.getEntry(path);
+					if (entry != null) {
+						InputStream in = jar.getInputStream(entry);
+						try {
+							return readAll(in);
+						} finally {
+							in.close();
+						}
+					}
+				} finally {
+					jar.close();
+				}
+			}
+		}
+		return null;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/* The classes named in the constant pool of a class file. */
+	static List<String> dependencies(byte[] classFile) throws IOException {
+		ConstantPool pool = new ConstantPool(new DataInputStream(new ByteArrayInputStream(classFile)));
+
+		List<String> names = new ArrayList<String>();
+		for (int index : pool.classIndices) {
+			String name = pool.utf8[index];
+			if (name != null && !name.startsWith("[")) {
+				names.add(name.replace('/', '.'));
+			}
+		}
+		// types used in descriptors and array class names
+		for (String s : pool.utf8) {
+			if (s == null) {
+				continue;
+			}
+			Matcher m = DESCRIPTOR_CLASS.matcher(s);
+			while (m.find()) {
+				names.add(m.group(1).replace('/', '.'));
+			}
+		}
+		return names;
+	}
+
+	/* The name of the class a class file defines. */
+	static String className(byte[] classFile) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+		ConstantPool pool = new ConstantPool(in);
+		in.readUnsignedShort(); // access flags
+		int thisClass = in.readUnsignedShort();
+		return pool.utf8[pool.nameIndex[thisClass]].replace('/', '.');
+	}
+
+	/* The Utf8 and Class entries of a constant pool. */
+	private static class ConstantPool {
+
+		final String[] utf8;
+		final int[] nameIndex;
+		final List<Integer> classIndices = new ArrayList<Integer>();
+
+		ConstantPool(DataInputStream in) throws IOException {
+			in.readInt(); // magic
+			in.readUnsignedShort(); // minor version
+			in.readUnsignedShort(); // major version
+
+			int count = in.readUnsignedShort();
+			utf8 = new String[count];
+			nameIndex = new int[count];
+
+			for (int i = 1; i < count; i++) {
+				int tag = in.readUnsignedByte();
+				switch (tag) {
+				case 1: // Utf8
+					utf8[i] = in.readUTF();
+					break;
+				case 7: // Class
+					nameIndex[i] = in.readUnsignedShort();
+					classIndices.add(nameIndex[i]);
+					break;
+				case 8: // String
+				case 16: // MethodType
+				case 19: // Module
+				case 20: // Package
+					in.skipBytes(2);
+					break;
+				case 15: // MethodHandle
+					in.skipBytes(3);
+					break;
+				case 3: // Integer
+				case 4: // Float
+				case 9: // Fieldref
+				case 10: // Methodref
+				case 11: // InterfaceMethodref
+				case 12: // NameAndType
+				case 17: // Dynamic
+				case 18: // InvokeDynamic
+					in.skipBytes(4);
+					break;
+				case 5: // Long
+				case 6: // Double
+					in.skipBytes(8);
+					i++;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag);
+				}
+			}
+		}
+	}
+}
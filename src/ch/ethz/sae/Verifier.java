@@ -1,7 +1,22 @@
 package ch.ethz.sae;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 import apron.ApronException;
 import apron.Interval;
@@ -15,9 +30,7 @@ import soot.jimple.internal.JInvokeStmt;
 import soot.jimple.internal.JSpecialInvokeExpr;
 import soot.jimple.internal.JVirtualInvokeExpr;
 import soot.jimple.spark.sets.DoublePointsToSet;
-import soot.jimple.spark.sets.P2SetVisitor;
 import soot.jimple.spark.SparkTransformer;
-import soot.jimple.spark.pag.Node;
 import soot.jimple.spark.pag.PAG;
 import java.util.*;
 import soot.*;
@@ -27,226 +40,738 @@ import soot.Local;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootMethod;
-import soot.toolkits.graph.BriefUnitGraph;
+import soot.options.Options;
 import soot.ValueBox;
 
 public class Verifier {
 
+	private static Config config;
+
+	/* Worker pool for the per-method analyses, null when running sequentially. */
+	private static ExecutorService pool;
+
+	/* A loop head seeded by --incremental did not hold an invariant of the method. */
+	private static class SeedRejected extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/* Use the given settings without parsing a command line, as the benchmarks do. */
+	static void configure(Config settings) {
+		config = settings;
+	}
+
 	public static void main(String[] args) {
-		if (args.length != 1) {
-			System.err.println("Usage: java -classpath soot-2.5.0.jar:./bin ch.ethz.sae.Verifier <class to test>");
+		try {
+			config = Config.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(Config.USAGE);
 			System.exit(-1);
 		}
-		String analyzedClass = args[0];
-		SootClass c = loadClass(analyzedClass);
-
-		PAG pointsToAnalysis = doPointsToAnalysis(c);
 
-		int programCorrectFlag = 1;
-		int divisionByZeroFlag = 1;
-
-		for (SootMethod method : c.getMethods()) {
+		if (config.fastStart) {
+			configureFastStart();
+		}
+		if (config.threads > 1) {
+			pool = new ForkJoinPool(config.threads);
+		}
 
-			Analysis analysis = new Analysis(new BriefUnitGraph(method.retrieveActiveBody()), c);
-			analysis.run();
+		try {
+			if (config.serverPort > 0) {
+				new VerifierServer(config.serverPort).serve();
+				return;
+			}
+			if (config.worker) {
+				runWorker();
+				return;
+			}
+			if (config.batch && config.workers > 0) {
+				new WorkerPool(config).verifyAll(expandTargets(config.targets), System.out, System.err);
+				return;
+			}
+			if (config.batch) {
+				verifyBatch();
+				return;
+			}
 
-			if (!verifyBounds(method, analysis, pointsToAnalysis)) {
-				programCorrectFlag = 0;
+			verifySingle(config.targets.get(0)).print(System.out);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			if (config.escalate) {
+				Metrics.printTiers(System.err);
+			}
+			if (config.incrementalDir != null) {
+				Metrics.printIncremental(System.err);
+			}
+			if (config.prepass) {
+				Metrics.printPrepass(System.err);
+			}
+			if (config.timing) {
+				Metrics.printTiming(System.err);
+			}
+			Metrics.printBudgetHits(System.err);
+			if (config.stats) {
+				Metrics.print(System.err);
 			}
-			if (!verifyDivisionByZero(method, analysis)) {
-				divisionByZeroFlag = 0;
+			if (config.metricsFile != null) {
+				writeMetrics();
 			}
 		}
+	}
 
-		if (divisionByZeroFlag == 1) {
-			System.out.println(analyzedClass + " NO_DIV_ZERO");
-		} else {
-			System.out.println(analyzedClass + " MAY_DIV_ZERO");
+	/* Write the JSON metrics to the file given with --metrics, - for stderr. */
+	private static void writeMetrics() {
+		if (config.metricsFile.equals("-")) {
+			Metrics.writeJson(System.err);
+			return;
+		}
+		try {
+			PrintStream out = new PrintStream(new FileOutputStream(config.metricsFile), false, "UTF-8");
+			try {
+				Metrics.writeJson(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Can't write " + config.metricsFile + ": " + e.getMessage());
 		}
+	}
 
-		if (programCorrectFlag == 1) {
-			System.out.println(analyzedClass + " NO_OUT_OF_BOUNDS");
-		} else {
-			System.out.println(analyzedClass + " MAY_OUT_OF_BOUNDS");
+	/*
+	 * Keep Soot from resolving the JDK transitively: classes that can't be
+	 * found become phantoms and the bodies of JDK classes are never built.
+	 */
+	private static void configureFastStart() {
+		Options.v().set_allow_phantom_refs(true);
+		Options.v().set_exclude(Arrays.asList("java.", "javax.", "sun.", "com.sun.", "jdk."));
+		Options.v().set_no_bodies_for_excluded(true);
+	}
+
+	/* Verify a single class, through the verdict cache if enabled. */
+	static Verdict verifySingle(String analyzedClass) {
+		VerdictCache cache = openCache(Collections.singletonList(analyzedClass));
+		Verdict verdict = cache == null ? null : cache.lookup(analyzedClass);
+
+		if (verdict == null) {
+			SootClass c = loadClass(analyzedClass);
+
+			PAG pointsToAnalysis = confinedClasses(Collections.singletonList(c)).isEmpty()
+					? doPointsToAnalysis(c.getMethods()) : null;
+
+			verdict = verifyClass(c, pointsToAnalysis);
+			if (cache != null) {
+				cache.store(verdict);
+			}
 		}
+		return verdict;
 	}
 
-	private static boolean verifyDivisionByZero(SootMethod method, Analysis fixPoint) {
-		for (Unit u : method.retrieveActiveBody().getUnits()) {
-			AWrapper state = fixPoint.getFlowBefore(u);
+	/*
+	 * Serve a WorkerPool: announce the process id, then answer every class
+	 * name read from stdin with its verdict lines and END.
+	 */
+	private static void runWorker() throws IOException {
+		expandTargets(config.targets);
+		System.out.println("READY " + ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+		System.out.flush();
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+		String name;
+		while ((name = in.readLine()) != null) {
 			try {
-				if (state.get().isBottom(Analysis.man))
-				// unreachable code
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				verifySingle(name.trim()).print(new PrintStream(bytes, true, "UTF-8"));
+				for (String line : bytes.toString("UTF-8").split("\n")) {
+					if (!line.isEmpty()) {
+						System.out.println("VERDICT " + line);
+					}
+				}
+			} catch (RuntimeException e) {
+				System.out.println("ERROR " + e);
+			} finally {
+				resetApplicationClasses();
+			}
+			System.out.println("END");
+			System.out.flush();
+		}
+	}
+
+	/*
+	 * Forget the application classes and the whole-program results of the
+	 * last verification, keeping the library classes Soot has loaded.
+	 */
+	static void resetApplicationClasses() {
+		Scene.v().releasePointsToAnalysis();
+		Scene.v().releaseCallGraph();
+		Scene.v().releaseActiveHierarchy();
+		for (SootClass c : new ArrayList<SootClass>(Scene.v().getApplicationClasses())) {
+			Scene.v().removeClass(c);
+		}
+	}
+
+	/* Verify all classes with a single Scene and a single points-to analysis. */
+	private static void verifyBatch() {
+		long start = System.currentTimeMillis();
+
+		List<String> names = expandTargets(config.targets);
+		VerdictCache cache = openCache(config.targets);
+
+		// only the classes without an up to date cached verdict are loaded
+		Map<String, Verdict> cached = new HashMap<String, Verdict>();
+		Map<String, SootClass> classes = new HashMap<String, SootClass>();
+		List<SootMethod> entryPoints = new ArrayList<SootMethod>();
+		for (String name : names) {
+			Verdict verdict = cache == null ? null : cache.lookup(name);
+			if (verdict != null) {
+				cached.put(name, verdict);
+			} else {
+				SootClass c = loadClass(name);
+				classes.put(name, c);
+				entryPoints.addAll(c.getMethods());
+			}
+		}
+
+		// Spark only covers the classes whose receivers can't be resolved locally
+		Set<SootClass> confined = confinedClasses(classes.values());
+		List<SootMethod> sparkEntryPoints = new ArrayList<SootMethod>();
+		for (SootMethod method : entryPoints) {
+			if (!confined.contains(method.getDeclaringClass())) {
+				sparkEntryPoints.add(method);
+			}
+		}
+		PAG pointsToAnalysis = sparkEntryPoints.isEmpty() ? null : doPointsToAnalysis(sparkEntryPoints);
+
+		System.err.println("Loaded " + classes.size() + " classes and ran points-to analysis in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		for (String name : names) {
+			if (cached.containsKey(name)) {
+				cached.get(name).print(System.out);
+				System.err.println(name + " taken from the cache");
 				continue;
-			} catch (ApronException e) {
-				e.printStackTrace();
 			}
 
-			//TODO: Check that all divisors are not zero
-			// Get use boxes
-			List<ValueBox> vbList = u.getUseBoxes();
-			// Iterate through all the used boxes
-			for (ValueBox vb : vbList) {
-				// Get the value from the current box
-				Value v = vb.getValue();
-				// Check if it is a division
-				if (v instanceof JDivExpr) {
-					// Yes: then get the divisor of the division
-					Value divisor = ((JDivExpr) v).getOp2();
-					// Case distinction on the type of the divisor
-					// case 1: divisor is a constant
-					if (divisor instanceof IntConstant) {
-						int val = ((IntConstant) divisor).value;
-						if (val == 0)
-							return false;
-					} else if (divisor instanceof JimpleLocal) {
-						Interval i = fixPoint.getInterval(state, divisor);
-						if (i.cmp(new MpqScalar(0)) == 0 || i.cmp(new MpqScalar(0)) == 1)
-							return false;
-					}
+			long classStart = System.currentTimeMillis();
+			SootClass c = classes.get(name);
+			Verdict verdict = verifyClass(c, confined.contains(c) ? null : pointsToAnalysis);
+			long elapsed = System.currentTimeMillis() - classStart;
+
+			if (cache != null) {
+				cache.store(verdict);
+			}
+			verdict.print(System.out);
+			System.err.println(name + " analysed in " + elapsed + " ms");
+		}
+	}
+
+	/*
+	 * The verdict cache, if enabled. Classes in the directories of the
+	 * class path and in analysed jars are hashed for its keys.
+	 */
+	private static VerdictCache openCache(List<String> targets) {
+		if (config.cacheDir == null) {
+			return null;
+		}
+
+		List<File> roots = new ArrayList<File>();
+		for (String entry : Scene.v().getSootClassPath().split(File.pathSeparator)) {
+			if (new File(entry).isDirectory()) {
+				roots.add(new File(entry));
+			}
+		}
+		for (String target : targets) {
+			if (target.endsWith(".jar") && new File(target).isFile()) {
+				roots.add(new File(target));
+			}
+		}
+		return new VerdictCache(new File(config.cacheDir), roots, config.fingerprint());
+	}
 
+	/*
+	 * Turn the batch arguments into class names. Directories and jars are
+	 * added to the Soot class path and contribute all classes they contain.
+	 */
+	private static List<String> expandTargets(List<String> targets) {
+		List<String> names = new ArrayList<String>();
+
+		for (String target : targets) {
+			File file = new File(target);
+			if (file.isDirectory()) {
+				addToSootClassPath(file);
+				collectClasses(file, "", names);
+			} else if (target.endsWith(".jar") && file.isFile()) {
+				addToSootClassPath(file);
+				try {
+					JarFile jar = new JarFile(file);
+					try {
+						Enumeration<JarEntry> entries = jar.entries();
+						while (entries.hasMoreElements()) {
+							String entry = entries.nextElement().getName();
+							String name = entry.replace('/', '.');
+							if (name.endsWith(".class") && !isAnalyserClass(name)) {
+								addClassName(name.substring(0, name.length() - ".class".length()), names);
+							}
+						}
+					} finally {
+						jar.close();
+					}
+				} catch (IOException e) {
+					System.err.println("Can't read " + target + ": " + e.getMessage());
 				}
+			} else {
+				addClassName(target, names);
 			}
 		}
+		return names;
+	}
 
-		//Return false if the method may have division by zero errors
-		return true;
+	private static void collectClasses(File dir, String pkg, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (File f : files) {
+			String name = f.getName();
+			if (f.isDirectory()) {
+				collectClasses(f, pkg + name + ".", names);
+			} else if (name.endsWith(".class") && !isAnalyserClass(pkg + name)) {
+				addClassName(pkg + name.substring(0, name.length() - ".class".length()), names);
+			}
+		}
 	}
 
-	private static boolean verifyBounds(SootMethod method, Analysis fixPoint,
-	PAG pointsTo) {
+	/* Whether a class found in a directory or jar is part of the verifier itself, e.g. in bin. */
+	private static boolean isAnalyserClass(String name) {
+		return name.startsWith(Verifier.class.getPackage().getName() + ".");
+	}
 
-		//TODO: Create a list of all allocation sites for PrinterArray
-		Map<InvokeExpr, SootMethod> invokes = pointsTo.callToMethod;
-		HashMap<JimpleLocal, Integer> paMapToSize = new HashMap<JimpleLocal, Integer>();
-		List<Triple<PointsToSet, Value, JVirtualInvokeExpr>> sendJobCalls = new ArrayList<Triple<PointsToSet, Value, JVirtualInvokeExpr>>();
+	private static void addClassName(String name, List<String> names) {
+		// the resource class itself is not a verification target
+		if (!name.equals(Analysis.resourceArrayName) && !names.contains(name)) {
+			names.add(name);
+		}
+	}
 
-		for (Unit u : method.retrieveActiveBody().getUnits()) {
-			AWrapper state = fixPoint.getFlowBefore(u);
+	static void addToSootClassPath(File path) {
+		Scene.v().setSootClassPath(Scene.v().getSootClassPath() + File.pathSeparator + path.getPath());
+	}
 
-			try {
-				if (state.get().isBottom(Analysis.man)) {
-					// unreachable code
-					continue;
+	/*
+	 * The classes whose sendJob receivers are resolved by LocalAllocationSites,
+	 * none unless --points-to local is given.
+	 */
+	private static Set<SootClass> confinedClasses(Collection<SootClass> classes) {
+		Set<SootClass> confined = new HashSet<SootClass>();
+		if (!config.localPointsTo) {
+			return confined;
+		}
+		for (SootClass c : classes) {
+			if (LocalAllocationSites.confines(c)) {
+				confined.add(c);
+			} else {
+				System.err.println(c.getName() + ": PrinterArrays escape their locals, using spark");
+			}
+		}
+		return confined;
+	}
+
+	/*
+	 * Run the numerical analysis on every method of c and check both
+	 * properties. With a null pointsToAnalysis the allocation sites are
+	 * tracked within each method.
+	 */
+	static Verdict verifyClass(final SootClass c, final PAG pointsToAnalysis) {
+		Verdict verdict = new Verdict(c.getName());
+
+		// Soot builds bodies and graphs lazily and is not thread safe, so do it up front
+		long bodyStart = System.nanoTime();
+		List<SootMethod> methods = c.getMethods();
+		final Map<SootMethod, MethodGraphs> graphs = new HashMap<SootMethod, MethodGraphs>();
+		for (SootMethod method : methods) {
+			graphs.put(method, new MethodGraphs(method.retrieveActiveBody(), config.blocks));
+		}
+		Metrics.bodyNanos.addAndGet(System.nanoTime() - bodyStart);
+		long start = System.currentTimeMillis();
+		final AllocationIndex allocations = new AllocationIndex(c, pointsToAnalysis);
+		// Spark does not see the JDK bodies left out by --fast-start
+		allocations.unresolvedUnsafe = config.fastStart && pointsToAnalysis != null;
+		if (pointsToAnalysis == null) {
+			long elapsed = System.currentTimeMillis() - start;
+			Metrics.localPointsToMillis.addAndGet(elapsed);
+			System.err.println(c.getName() + ": points-to resolved locally in " + elapsed + " ms");
+		}
+		final IncrementalStore store = config.incrementalDir == null ? null
+				: new IncrementalStore(new File(config.incrementalDir), c, config.fingerprint());
+
+		if (pool == null) {
+			for (SootMethod method : methods) {
+				verdict.combine(verifyMethod(method, graphs.get(method), c, allocations, store));
+			}
+			if (store != null) {
+				store.save();
+			}
+			return verdict;
+		}
+
+		List<Callable<Verdict>> tasks = new ArrayList<Callable<Verdict>>();
+		for (final SootMethod method : methods) {
+			tasks.add(new Callable<Verdict>() {
+				public Verdict call() {
+					return verifyMethod(method, graphs.get(method), c, allocations, store);
 				}
-			} catch (ApronException e) {
-				e.printStackTrace();
+			});
+		}
+
+		// verdicts are combined in method order, as in a sequential run
+		try {
+			for (Future<Verdict> result : pool.invokeAll(tasks)) {
+				verdict.combine(result.get());
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		if (store != null) {
+			store.save();
+		}
+		return verdict;
+	}
 
-			// Constuctor
-			if (u instanceof JInvokeStmt && ((JInvokeStmt) u).getInvokeExpr() instanceof JSpecialInvokeExpr) {
-				// TODO: Get the size of the PrinterArray given as argument to the constructor
-				InvokeExpr e = ((JInvokeStmt) u).getInvokeExpr();
-				JimpleLocal constrLoc = (JimpleLocal)((JSpecialInvokeExpr) e).getBaseBox().getValue();
-				Value val = e.getArgBox(0).getValue();
-				//System.out.println("\n\n" + val.toString() + "\n\n");
-				int size = Integer.parseInt(val.toString());
-				paMapToSize.put(constrLoc, size);
+	/*
+	 * Verify a method, reusing its previous verdict when the store has one
+	 * for an unchanged body and warm-starting its loop heads otherwise.
+	 */
+	private static Verdict verifyMethod(SootMethod method, MethodGraphs graphs, SootClass c,
+			AllocationIndex allocations, IncrementalStore store) {
+		Map<String, Map<String, Interval>> seeds = null;
+		if (store != null) {
+			Verdict reused = store.reuse(method);
+			if (reused != null) {
+				Metrics.reusedMethods.incrementAndGet();
+				System.err.println(method.getSignature() + ": reused");
+				return reused;
 			}
+			seeds = store.seedsFor(method);
+		}
 
-			// Call of sendJob
-			if (u instanceof JInvokeStmt && ((JInvokeStmt) u).getInvokeExpr() instanceof JVirtualInvokeExpr) {
+		Map<String, Map<String, Interval>> invariants = new HashMap<String, Map<String, Interval>>();
+		Verdict proven = config.prepass ? prepass(method, graphs, allocations) : null;
+		if (proven != null && proven.noDivZero && proven.noOutOfBounds) {
+			Metrics.prepassMethods.incrementAndGet();
+			if (store != null) {
+				store.record(method, proven, invariants);
+			}
+			return proven;
+		}
 
-				JInvokeStmt jInvStmt = (JInvokeStmt)u;
+		List<Set<String>> packs = packsOf(method, c);
+		Verdict verdict = null;
+		boolean warm = seeds != null && !seeds.isEmpty();
 
-				JVirtualInvokeExpr invokeExpr = (JVirtualInvokeExpr)jInvStmt.getInvokeExpr();
+		if (warm) {
+			try {
+				verdict = verifyInDomains(method, graphs, c, allocations, packs, seeds, invariants, proven);
+			} catch (SeedRejected e) {
+				verdict = null;
+			}
+			// a seed may only shorten a proof, anything else is analysed again without it
+			if (verdict == null || !(verdict.noDivZero && verdict.noOutOfBounds)) {
+				Metrics.droppedSeeds.incrementAndGet();
+				invariants.clear();
+				verdict = null;
+				warm = false;
+			}
+		}
+		if (verdict == null) {
+			verdict = verifyInDomains(method, graphs, c, allocations, packs, null, invariants, proven);
+		}
 
-				Local base = (Local) invokeExpr.getBase();
-				DoublePointsToSet pts = (DoublePointsToSet) pointsTo.reachingObjects(base);
+		if (store != null) {
+			store.record(method, verdict, invariants);
+			(warm ? Metrics.warmMethods : Metrics.scratchMethods).incrementAndGet();
+			System.err.println(method.getSignature() + (warm ? ": warm-started" : ": from scratch"));
+		}
+		return verdict;
+	}
 
-				if (invokeExpr.getMethod().getName().equals(Analysis.functionName)) {
+	/* Run the interval pre-pass on a method, counting the checks it discharges. */
+	private static Verdict prepass(SootMethod method, MethodGraphs graphs, AllocationIndex allocations) {
+		long start = System.nanoTime();
+		IntervalPrepass prepass = new IntervalPrepass(method.getActiveBody(), graphs.units, config.wideningDelay);
+		prepass.run();
+		Verdict verdict = prepass.check(method.getSignature(), allocations);
+		Metrics.prepassNanos.addAndGet(System.nanoTime() - start);
+		Metrics.prepassChecks.addAndGet(prepass.checks);
+		Metrics.prepassDischarged.addAndGet(prepass.discharged);
+		return verdict;
+	}
 
+	/* A property the pre-pass proved holds whatever Apron found. */
+	private static void settle(Verdict verdict, Verdict proven) {
+		if (proven != null) {
+			verdict.noDivZero |= proven.noDivZero;
+			verdict.noOutOfBounds |= proven.noOutOfBounds;
+		}
+	}
 
-					// TODO: Check whether the 'sendJob' method's argument is within bounds
-					JimpleLocal key = (JimpleLocal)(invokeExpr).getBaseBox().getValue();
-					PointsToSet set = pointsTo.reachingObjects(key);
-					Value arg = (Value) invokeExpr.getArg(0);
-					sendJobCalls.add(new Triple<PointsToSet, Value, JVirtualInvokeExpr>(set, arg, (JVirtualInvokeExpr) invokeExpr));
+	/* The configured domain, or the escalation through all of them. */
+	private static Verdict verifyInDomains(SootMethod method, MethodGraphs graphs, SootClass c,
+			AllocationIndex allocations, List<Set<String>> packs, Map<String, Map<String, Interval>> seeds,
+			Map<String, Map<String, Interval>> invariants, Verdict proven) {
+		Verdict verdict = null;
 
-					for(Triple<PointsToSet, Value, JVirtualInvokeExpr> call : sendJobCalls) {
-						for(JimpleLocal pa : paMapToSize.keySet()) {
-							if(call.x.hasNonEmptyIntersection(pointsTo.reachingObjects(pa))) {
-								Interval bounds = fixPoint.getInterval(state, call.y);
-								List<Integer> possibleValues = getPossibleValues(bounds, call.y, fixPoint, call.z, state.man);
-								if (possibleValues == null) break;
-								int size = paMapToSize.get(pa);
-								for (Integer i : possibleValues)
-									if (i < 0 || i > size - 1)
-										return false;
-							}
-						}
+		if (!config.escalate) {
+			verdict = verifyWithinBudget(method, graphs, c, allocations, config.domain, packs, seeds, invariants);
+		} else {
+			// escalate to a more precise domain while a check is not discharged
+			Domain[] tiers = Domain.values();
+			for (Domain domain : tiers) {
+				invariants.clear();
+				verdict = verifyWithinBudget(method, graphs, c, allocations, domain, packs, seeds, invariants);
+				settle(verdict, proven);
+				if ((verdict.noDivZero && verdict.noOutOfBounds) || domain == tiers[tiers.length - 1]) {
+					Metrics.settled(domain);
+					break;
+				}
+			}
+		}
+
+		settle(verdict, proven);
+		return verdict;
+	}
+
+	/*
+	 * Verify a method with the given domain. When the analysis runs out of
+	 * its budget the method is retried with intervals if --budget-fallback
+	 * box is given, and otherwise (or if that runs out too) both of its
+	 * checks are reported as MAY.
+	 */
+	private static Verdict verifyWithinBudget(SootMethod method, MethodGraphs graphs, SootClass c,
+			AllocationIndex allocations, Domain domain, List<Set<String>> packs,
+			Map<String, Map<String, Interval>> seeds, Map<String, Map<String, Interval>> invariants) {
+		try {
+			return verifyMethod(method, graphs, c, allocations, domain, packs, seeds, invariants);
+		} catch (Budget.Exceeded e) {
+			Metrics.budgetHit(method.getSignature() + " (" + domain.option + "): " + e.getMessage());
+		}
+
+		invariants.clear();
+		if (config.budgetFallbackToBox && domain != Domain.BOX) {
+			try {
+				return verifyMethod(method, graphs, c, allocations, Domain.BOX, packs, seeds, invariants);
+			} catch (Budget.Exceeded e) {
+				Metrics.budgetHit(method.getSignature() + " (" + Domain.BOX.option + "): " + e.getMessage());
+				invariants.clear();
+			}
+		}
+
+		Verdict verdict = new Verdict(method.getSignature());
+		verdict.noDivZero = false;
+		verdict.noOutOfBounds = false;
+		return verdict;
+	}
+
+	/*
+	 * The sets of variables to analyse the method with, a single null set
+	 * standing for all integer variables when packing is off.
+	 */
+	private static List<Set<String>> packsOf(SootMethod method, SootClass c) {
+		List<Set<String>> packs = new ArrayList<Set<String>>();
+		if (config.packing == Config.Packing.NONE) {
+			packs.add(null);
+			return packs;
+		}
+
+		VariablePacker packer = new VariablePacker(method.getActiveBody());
+		if (config.packing == Config.Packing.PRUNE) {
+			packs.add(packer.getRelevant());
+		} else {
+			packs.addAll(packer.getPacks());
+			// without relevant variables the analysis still finds unreachable code
+			if (packs.isEmpty()) {
+				packs.add(packer.getRelevant());
+			}
+		}
+
+		System.err.println(method.getSignature() + ": environment of "
+				+ VariablePacker.environmentSize(method.getActiveBody(), c) + " variables pruned to "
+				+ packer.getRelevant().size() + " in " + packs.size() + " pack(s)");
+		return packs;
+	}
+
+	/*
+	 * Verify a method with the given domain and packs, seeding the loop
+	 * heads with seeds if not null and collecting the loop head invariants
+	 * of all packs into invariants.
+	 */
+	private static Verdict verifyMethod(SootMethod method, MethodGraphs graphs, SootClass c,
+			AllocationIndex allocations, Domain domain, List<Set<String>> packs,
+			Map<String, Map<String, Interval>> seeds, Map<String, Map<String, Interval>> invariants) {
+		Verdict verdict = new Verdict(method.getSignature());
+
+		// every pack checks the divisors and arguments in its environment
+		for (Set<String> pack : packs) {
+			Analysis analysis = new Analysis(graphs, c, domain, pack);
+			analysis.configure(config);
+			if (seeds != null) {
+				analysis.seed(seeds);
+			}
+			long start = System.nanoTime();
+			analysis.run();
+			long fixpointNanos = System.nanoTime() - start;
+			Metrics.fixpointNanos.addAndGet(fixpointNanos);
+			if (!analysis.seedsHeld) {
+				throw new SeedRejected();
+			}
+
+			if (analysis.invariants != null) {
+				for (Map.Entry<String, Map<String, Interval>> head : analysis.invariants.entrySet()) {
+					if (!invariants.containsKey(head.getKey())) {
+						invariants.put(head.getKey(), new HashMap<String, Interval>());
 					}
+					invariants.get(head.getKey()).putAll(head.getValue());
+				}
+			}
 
-					/*
-					// Visit all allocation sites that the base pointer may reference
-					MyP2SetVisitor visitor = new MyP2SetVisitor();
-					pts.forall(visitor);
-					*/
+			Metrics.transfers.addAndGet(analysis.transfers);
+			Metrics.nativeStates.addAndGet(analysis.allocations);
+			if (config.stats) {
+				System.err.println(method.getSignature() + ": " + analysis.transfers + " transfers, "
+						+ analysis.allocations + " native states allocated");
+				if (analysis.wtoEngine != null) {
+					System.err.println(method.getSignature() + ": " + analysis.wtoEngine.components
+							+ " components stabilised in " + analysis.wtoEngine.rounds + " rounds, "
+							+ analysis.widenings + " widenings");
+				}
+				System.err.println(method.getSignature() + ": peak of " + analysis.natives.peakLive
+						+ " live native states of total size " + analysis.natives.peakSize);
+				if (config.sparse) {
+					System.err.println(method.getSignature() + ": " + analysis.fixpointStates
+							+ " states held at the fixpoint, " + analysis.keptStates + " kept for "
+							+ Analysis.queryPoints(method.getActiveBody()).size() + " query points");
 				}
 			}
+
+			List<Checker> checkers = new ArrayList<Checker>();
+			checkers.add(new BoundsChecker(analysis, allocations));
+			checkers.add(new DivisionByZeroChecker(analysis));
+
+			start = System.nanoTime();
+			long[] checkerNanos = runCheckers(method, analysis, checkers);
+			Metrics.checkNanos.addAndGet(System.nanoTime() - start);
+
+			if (config.metricsFile != null) {
+				Metrics.MethodRecord record = new Metrics.MethodRecord(method.getSignature(), domain, fixpointNanos,
+						analysis.transfers, analysis.widenings);
+				record.engine = config.engineName();
+				record.peakLiveStates = analysis.natives.peakLive;
+				record.peakNativeSize = analysis.natives.peakSize;
+				for (int i = 0; i < checkers.size(); i++) {
+					record.checkerNanos.put(checkers.get(i).getClass().getSimpleName(), checkerNanos[i]);
+				}
+				Metrics.record(record);
+			}
+
+			for (Checker checker : checkers) {
+				checker.report(verdict);
+			}
 		}
-		return true;
-		//return false;
+		return verdict;
 	}
 
+	/*
+	 * Walk the units of the method once and let every checker that has not
+	 * settled its verdict yet visit the reachable ones. Returns the time
+	 * spent in each checker.
+	 */
+	static long[] runCheckers(SootMethod method, Analysis fixPoint, List<Checker> checkers) {
+		long[] nanos = new long[checkers.size()];
+		for (Unit u : method.getActiveBody().getUnits()) {
+			boolean allDone = true;
+			for (Checker checker : checkers) {
+				allDone &= checker.isDone();
+			}
+			if (allDone) {
+				return nanos;
+			}
 
-	public static List<Integer> getPossibleValues(Interval ival,Value value,Analysis fixPoint, JVirtualInvokeExpr invokExpr, Manager man){
-		List<Integer> possibleValues = new ArrayList<Integer>();
-		try {
-			if(value instanceof JimpleLocal) {
-				int lowerBound = getInfForInterval(ival);
-				int upperBound = getSupForInterval(ival);
-				for (int i = lowerBound; i <= upperBound; i++) {
-					Scalar leftLowerBound = new MpqScalar();
-					leftLowerBound.setInfty(-1);
-					Scalar leftUpperBound = new MpqScalar(i-1);
-					Scalar rightLowerBound = new MpqScalar(i+1);
-					Scalar rightUpperBound = new MpqScalar();
-					rightUpperBound.setInfty(1);
-					Boolean inLeftInterval = fixPoint.stateTracer.get(invokExpr).satisfy(man, ((JimpleLocal) value).getName(), new Interval(leftLowerBound, leftUpperBound));
-					Boolean inRightInterval = fixPoint.stateTracer.get(invokExpr).satisfy(man, ((JimpleLocal) value).getName(), new Interval(rightLowerBound, rightUpperBound));
-					if(!(inLeftInterval || inRightInterval)) {
-						possibleValues.add(i);
-					}
+			// with sparse retention only the states at query points are left
+			if (!fixPoint.isRetained(u)) {
+				continue;
+			}
+
+			AWrapper state = fixPoint.getFlowBefore(u);
+			try {
+				if (state.get().isBottom(fixPoint.man)) {
+					// unreachable code
+					continue;
+				}
+			} catch (ApronException e) {
+				e.printStackTrace();
+			}
+
+			for (int i = 0; i < checkers.size(); i++) {
+				Checker checker = checkers.get(i);
+				if (!checker.isDone()) {
+					long start = System.nanoTime();
+					checker.visit(u, state);
+					nanos[i] += System.nanoTime() - start;
 				}
-			} else if (value instanceof IntConstant) {
-				possibleValues.add(((IntConstant) value).value);
 			}
-		} catch (ApronException e ) {
-			e.printStackTrace();
 		}
-		return possibleValues;
+		return nanos;
+	}
+
 
+	/*
+	 * Whether every value the sendJob argument may take in the given state is
+	 * within [0, size - 1]. This takes one Apron query for a local, whatever
+	 * the width of its interval, and infinite bounds are handled exactly.
+	 */
+	public static boolean isWithinBounds(Value value, int size, Abstract1 state, Manager man) {
+		if (value instanceof IntConstant) {
+			int val = ((IntConstant) value).value;
+			return val >= 0 && val < size;
+		}
+		if (size <= 0 || !(value instanceof JimpleLocal)) {
+			return false;
+		}
+		try {
+			Metrics.boundsQueries.incrementAndGet();
+			Metrics.count(Metrics.ApronOp.SATISFY);
+			return state.satisfy(man, ((JimpleLocal) value).getName(), new Interval(0, size - 1));
+		} catch (ApronException e) {
+			e.printStackTrace();
+		}
+		return false;
 	}
 
-	public static int getInfForInterval(Interval ival) {
-        int result;
-        try {
-            result  = Integer.parseInt(ival.inf().toString());
-        } catch (Exception e) {
-            result =-1;
-        }
-        return result;
-    }
-    public static int getSupForInterval(Interval ival) {
-        int result;
-        try {
-            result  = Integer.parseInt(ival.sup().toString());
-        } catch (Exception e) {
-            result = 100;
-        }
-        return result;
-    }
-
-
-	private static SootClass loadClass(String name) {
-		SootClass c = Scene.v().loadClassAndSupport(name);
+	static SootClass loadClass(String name) {
+		long start = System.nanoTime();
+		SootClass c;
+		if (config.fastStart) {
+			c = Scene.v().loadClass(name, SootClass.BODIES);
+			Scene.v().loadClass(Analysis.resourceArrayName, SootClass.BODIES);
+		} else {
+			c = Scene.v().loadClassAndSupport(name);
+		}
 		c.setApplicationClass();
+		Metrics.loadNanos.addAndGet(System.nanoTime() - start);
 		return c;
 	}
 
-	private static PAG doPointsToAnalysis(SootClass c) {
-		Scene.v().setEntryPoints(c.getMethods());
+	static PAG doPointsToAnalysis(List<SootMethod> entryPoints) {
+		long start = System.currentTimeMillis();
+		Scene.v().setEntryPoints(entryPoints);
 
 		HashMap<String, String> options = new HashMap<String, String>();
 		options.put("enabled", "true");
@@ -261,14 +786,11 @@ public class Verifier {
 		SparkTransformer.v().transform("", options);
 		PAG pag = (PAG) Scene.v().getPointsToAnalysis();
 
+		long elapsed = System.currentTimeMillis() - start;
+		Metrics.sparkPointsToMillis.addAndGet(elapsed);
+		if (config.localPointsTo) {
+			System.err.println("spark points-to analysis in " + elapsed + " ms");
+		}
 		return pag;
 	}
 }
-
-class MyP2SetVisitor extends P2SetVisitor{
-
-	@Override
-	public void visit(Node arg0) {
-		//TODO: Check whether the argument given to sendJob is within bounds
-	}
-}
@@ -0,0 +1,227 @@
+package ch.ethz.sae;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import soot.Scene;
+
+/*
+ * Serves verification requests on a localhost port, so that the JVM and the
+ * library classes loaded by Soot stay warm between requests.
+ *
+ * Every line a client sends is a class name (found on the Soot class path)
+ * or the path of a class file, and is answered with the verdict lines and an
+ * empty line. STATS is answered with the latencies of the requests served so
+ * far. Requests of all clients are queued and verified one at a time, since
+ * Soot keeps its state in singletons. A bounded number of clients is served
+ * at once; a client beyond that and the waiting ones is answered
+ * "ERROR busy" and disconnected.
+ */
+public class VerifierServer {
+
+	private static final int HANDLERS = 8, WAITING_CLIENTS = 16;
+
+	/* Latencies kept for the percentiles reported by STATS. */
+	private static final int LATENCY_WINDOW = 1000;
+
+	private final int port;
+	private final ExecutorService queue = Executors.newSingleThreadExecutor();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final ExecutorService handlers = new ThreadPoolExecutor(HANDLERS, HANDLERS, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(WAITING_CLIENTS));
+
+	/*
+	 * Milliseconds from the arrival of a request to its verdict, for the
+	 * last LATENCY_WINDOW requests, and their count, sum and maximum over
+	 * all requests.
+	 */
+	private final Deque<Long> latencies = new ArrayDeque<Long>();
+	private long requests = 0, totalLatency = 0, maxLatency = 0;
+
+	public VerifierServer(int port) {
+		this.port = port;
+	}
+
+	public void serve() throws IOException {
+		// load the classes Soot always needs before the first request arrives
+		queue.submit(new Runnable() {
+			public void run() {
+				Scene.v().loadBasicClasses();
+			}
+		});
+
+		ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		System.err.println("Listening on localhost:" + server.getLocalPort());
+		try {
+			while (true) {
+				final Socket client = server.accept();
+				try {
+					handlers.execute(new Runnable() {
+						public void run() {
+							handle(client);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					refuse(client);
+				}
+			}
+		} finally {
+			server.close();
+			handlers.shutdownNow();
+			queue.shutdown();
+		}
+	}
+
+	private void handle(Socket client) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+			PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				out.print(line.equals("STATS") ? stats() : submit(line));
+				out.println();
+			}
+		} catch (IOException e) {
+			System.err.println("Client failed: " + e.getMessage());
+		} finally {
+			try {
+				client.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void refuse(Socket client) {
+		try {
+			PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+			out.println("ERROR busy");
+			out.println();
+		} catch (IOException e) {
+			System.err.println("Client failed: " + e.getMessage());
+		} finally {
+			try {
+				client.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/* Queue a request and wait for its reply. */
+	private String submit(final String request) {
+		long start = System.currentTimeMillis();
+		queued.incrementAndGet();
+		Future<String> reply = queue.submit(new Callable<String>() {
+			public String call() throws IOException {
+				queued.decrementAndGet();
+				try {
+					return verify(request);
+				} finally {
+					Verifier.resetApplicationClasses();
+					// report the budget hits of this request instead of keeping them for the whole run
+					Metrics.printBudgetHits(System.err);
+					Metrics.clearRecords();
+				}
+			}
+		});
+
+		try {
+			return reply.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "ERROR interrupted\n";
+		} catch (ExecutionException e) {
+			return "ERROR " + e.getCause() + "\n";
+		} finally {
+			long latency = System.currentTimeMillis() - start;
+			synchronized (latencies) {
+				latencies.add(latency);
+				if (latencies.size() > LATENCY_WINDOW) {
+					latencies.poll();
+				}
+				requests++;
+				totalLatency += latency;
+				maxLatency = Math.max(maxLatency, latency);
+			}
+		}
+	}
+
+	/* The verdict lines for a class name or class file path. */
+	private String verify(String request) throws IOException {
+		String className = request;
+		if (request.endsWith(".class")) {
+			File file = new File(request).getAbsoluteFile();
+			className = VerdictCache.className(Files.readAllBytes(file.toPath()));
+
+			// the class path root is the directory above the package directories
+			File root = file.getParentFile();
+			for (int i = className.indexOf('.'); i >= 0; i = className.indexOf('.', i + 1)) {
+				root = root.getParentFile();
+			}
+			if (!Arrays.asList(Scene.v().getSootClassPath().split(File.pathSeparator)).contains(root.getPath())) {
+				Verifier.addToSootClassPath(root);
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, "UTF-8");
+		Verifier.verifySingle(className).print(out);
+		return bytes.toString("UTF-8");
+	}
+
+	private String stats() {
+		List<Long> sorted;
+		long count, total, max;
+		synchronized (latencies) {
+			sorted = new ArrayList<Long>(latencies);
+			count = requests;
+			total = totalLatency;
+			max = maxLatency;
+		}
+		Collections.sort(sorted);
+
+		StringBuilder reply = new StringBuilder();
+		reply.append("requests: ").append(count).append('\n');
+		reply.append("queued: ").append(queued.get()).append('\n');
+		if (!sorted.isEmpty()) {
+			reply.append("mean latency: ").append(total / count).append(" ms\n");
+			reply.append("median latency: ").append(percentile(sorted, 50)).append(" ms\n");
+			reply.append("95th percentile latency: ").append(percentile(sorted, 95)).append(" ms\n");
+			reply.append("max latency: ").append(max).append(" ms\n");
+		}
+		return reply.toString();
+	}
+
+	private static long percentile(List<Long> sorted, int p) {
+		int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(index, 0));
+	}
+}
@@ -0,0 +1,280 @@
+package ch.ethz.sae;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Spreads the classes of a batch over forked worker JVMs, so that a crash
+ * in native code only loses the class being analysed. Workers run the
+ * verifier with --worker, the class path and library path of this JVM and
+ * the same options. A worker that crashes or exceeds the timeout is
+ * restarted and its class retried once, then reported as MAY.
+ */
+public class WorkerPool {
+
+	private static final int RETRIES = 1;
+
+	/* Marks the end of the output of a worker, after its lines. */
+	private static final Object EOF = new Object();
+
+	private final List<String> command = new ArrayList<String>();
+	private final long timeoutMillis;
+	private final List<Worker> workers = new ArrayList<Worker>();
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+	public WorkerPool(Config config) {
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("-Djava.library.path=" + System.getProperty("java.library.path"));
+		command.add(Verifier.class.getName());
+		command.add("--worker");
+		command.addAll(config.workerArgs);
+
+		timeoutMillis = config.workerTimeoutSeconds * 1000L;
+		for (int i = 0; i < config.workers; i++) {
+			workers.add(new Worker(i));
+		}
+	}
+
+	/* Verify the classes and print their verdicts in order, then the statistics and failures. */
+	public void verifyAll(List<String> names, PrintStream out, PrintStream err) {
+		final Queue<String> queue = new ConcurrentLinkedQueue<String>(names);
+		final Map<String, List<String>> results = new ConcurrentHashMap<String, List<String>>();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final Worker worker : workers) {
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					String name;
+					while ((name = queue.poll()) != null) {
+						results.put(name, verify(worker, name));
+					}
+					worker.stop();
+				}
+			});
+			t.start();
+			threads.add(t);
+		}
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		for (String name : names) {
+			for (String line : results.get(name)) {
+				out.println(line);
+			}
+		}
+
+		for (Worker worker : workers) {
+			err.println("worker " + worker.id + ": " + worker.verified + " classes in " + worker.busyMillis + " ms, "
+					+ worker.starts + " starts, " + worker.crashes + " crashes, " + worker.hangs + " timeouts");
+		}
+		for (String failure : failures) {
+			err.println(failure);
+		}
+	}
+
+	/* The verdict lines of a class, MAY for both properties if no worker could verify it. */
+	private List<String> verify(Worker worker, String name) {
+		for (int attempt = 0; attempt <= RETRIES; attempt++) {
+			try {
+				if (!worker.isAlive()) {
+					worker.start();
+				}
+				List<String> reply = worker.verify(name);
+				if (reply != null) {
+					return reply;
+				}
+			} catch (IOException e) {
+				failures.add(name + ": worker " + worker.id + " failed: " + e.getMessage());
+				worker.kill();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		return mayLines(name);
+	}
+
+	private static List<String> mayLines(String name) {
+		List<String> lines = new ArrayList<String>();
+		lines.add(name + " MAY_DIV_ZERO");
+		lines.add(name + " MAY_OUT_OF_BOUNDS");
+		return lines;
+	}
+
+	/* A forked JVM verifying one class at a time. */
+	private class Worker {
+
+		final int id;
+		private Process process;
+		private BufferedWriter in;
+		private BlockingQueue<Object> lines;
+		private String pid;
+
+		int verified = 0, starts = 0, crashes = 0, hangs = 0;
+		long busyMillis = 0;
+
+		Worker(int id) {
+			this.id = id;
+		}
+
+		boolean isAlive() {
+			return process != null;
+		}
+
+		void start() throws IOException, InterruptedException {
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectError(Redirect.INHERIT);
+			process = builder.start();
+			starts++;
+
+			in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+			final BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+			lines = received;
+			Thread reader = new Thread(new Runnable() {
+				public void run() {
+					try {
+						String line;
+						while ((line = out.readLine()) != null) {
+							received.add(line);
+						}
+					} catch (IOException e) {
+					}
+					received.add(EOF);
+				}
+			});
+			reader.setDaemon(true);
+			reader.start();
+
+			Object ready = lines.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+			if (ready == null || ready == EOF || !((String) ready).startsWith("READY ")) {
+				kill();
+				throw new IOException("did not start");
+			}
+			pid = ((String) ready).substring("READY ".length());
+		}
+
+		/* The verdict lines of the class, null if the worker crashed or timed out. */
+		List<String> verify(String name) throws IOException, InterruptedException {
+			long start = System.currentTimeMillis();
+			in.write(name);
+			in.newLine();
+			in.flush();
+
+			List<String> reply = new ArrayList<String>();
+			while (true) {
+				long left = start + timeoutMillis - System.currentTimeMillis();
+				Object next = left > 0 ? lines.poll(left, TimeUnit.MILLISECONDS) : null;
+				if (next == null) {
+					hangs++;
+					failures.add(name + ": worker " + id + " (pid " + pid + ") timed out after "
+							+ timeoutMillis / 1000 + " s");
+					kill();
+					return null;
+				}
+				if (next == EOF) {
+					crashes++;
+					failures.add(name + ": worker " + id + " (pid " + pid + ") exited with code "
+							+ process.waitFor() + crashReport());
+					stop();
+					return null;
+				}
+
+				String line = (String) next;
+				if (line.equals("END")) {
+					break;
+				} else if (line.startsWith("VERDICT ")) {
+					reply.add(line.substring("VERDICT ".length()));
+				} else if (line.startsWith("ERROR ")) {
+					failures.add(name + ": " + line.substring("ERROR ".length()));
+					reply = null;
+				}
+			}
+
+			verified++;
+			busyMillis += System.currentTimeMillis() - start;
+			// an exception in the analysis is not retried, the class is reported as MAY
+			return reply == null ? mayLines(name) : reply;
+		}
+
+		/* The crash log of the worker and the frame it crashed in, if the JVM wrote one. */
+		private String crashReport() {
+			File log = new File("hs_err_pid" + pid + ".log");
+			if (!log.isFile()) {
+				return "";
+			}
+			String frame = null;
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(log), "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (line.startsWith("# Problematic frame:")) {
+							frame = reader.readLine();
+							break;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+			}
+			return ", see " + log + (frame == null ? "" : ": " + frame.substring(1).trim());
+		}
+
+		/* End the worker, letting it exit on its own for a few seconds before killing it. */
+		void stop() {
+			if (process == null) {
+				return;
+			}
+			try {
+				in.close();
+				process.waitFor(5, TimeUnit.SECONDS);
+			} catch (IOException e) {
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			kill();
+		}
+
+		/* End the worker at once; a worker stuck in native code may ignore SIGTERM. */
+		void kill() {
+			if (process == null) {
+				return;
+			}
+			process.destroyForcibly();
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			process = null;
+		}
+	}
+}
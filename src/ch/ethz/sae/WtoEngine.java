@@ -0,0 +1,214 @@
+package ch.ethz.sae;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import soot.Unit;
+import soot.toolkits.graph.UnitGraph;
+
+/*
+ * Fixpoint of an Analysis in the weak topological order of Bourdoncle
+ * ("Efficient chaotic iteration strategies with widenings", 1993), with
+ * the recursive iteration strategy: the body of a component is stabilised,
+ * inner components first, before its head is checked again. Widening is
+ * only applied at component heads, after wideningDelay rounds of that
+ * component; its counter starts over whenever an outer component enters it
+ * again. The states are kept where the worklist engine of Soot keeps them.
+ */
+class WtoEngine {
+
+	/* A unit of the order, or a component with its head and body. */
+	private static class Element {
+		final Unit head;
+		final List<Element> body; // null for a single unit
+
+		Element(Unit head, List<Element> body) {
+			this.head = head;
+			this.body = body;
+		}
+	}
+
+	private final Analysis analysis;
+	private final UnitGraph graph;
+	private final int wideningDelay;
+	private final List<Element> order = new ArrayList<Element>();
+
+	/* Depth-first numbers of the construction of the order. */
+	private final Map<Unit, Integer> dfn = new HashMap<Unit, Integer>();
+	private final Deque<Unit> stack = new ArrayDeque<Unit>();
+	private int num = 0;
+
+	/* The state at the heads of the method, allocated once. */
+	private AWrapper entry;
+
+	/* Components stabilised and the rounds it took, over the whole run. */
+	int components = 0, rounds = 0;
+
+	WtoEngine(Analysis analysis, UnitGraph graph, int wideningDelay) {
+		this.analysis = analysis;
+		this.graph = graph;
+		this.wideningDelay = wideningDelay;
+
+		// unreachable units are ordered after the reachable ones
+		for (Unit u : graph.getHeads()) {
+			visitRoot(u);
+		}
+		for (Unit u : graph.getBody().getUnits()) {
+			visitRoot(u);
+		}
+	}
+
+	/* A pending step of the construction: the visit of a unit, or the body of its component. */
+	private static class Frame {
+		final Unit v;
+		final List<Element> partition; // where the element closed by this frame goes
+		final List<Element> body; // null for a visit
+		final Iterator<Unit> succs;
+		int head;
+		boolean loop = false;
+
+		Frame(Unit v, List<Element> partition, List<Element> body, Iterator<Unit> succs, int head) {
+			this.v = v;
+			this.partition = partition;
+			this.body = body;
+			this.succs = succs;
+			this.head = head;
+		}
+	}
+
+	private void visitRoot(Unit u) {
+		if (dfn.containsKey(u)) {
+			return;
+		}
+		List<Element> partition = new ArrayList<Element>();
+		visit(u, partition);
+		order.addAll(partition);
+	}
+
+	/*
+	 * Bourdoncle's construction, prepending the elements it closes to
+	 * partition. The recursion is kept on an explicit stack of frames, as
+	 * the methods with the most units would overflow the Java stack.
+	 */
+	private void visit(Unit root, List<Element> partition) {
+		Deque<Frame> frames = new ArrayDeque<Frame>();
+		frames.push(enter(root, partition));
+		Integer returned = null; // the head found by the frame popped last
+
+		while (!frames.isEmpty()) {
+			Frame f = frames.peek();
+			if (returned != null) {
+				if (f.body == null && returned <= f.head) {
+					f.head = returned;
+					f.loop = true;
+				}
+				returned = null;
+			}
+
+			if (f.succs.hasNext()) {
+				Unit w = f.succs.next();
+				Integer n = dfn.get(w);
+				if (n == null || n == 0) {
+					frames.push(enter(w, f.body == null ? f.partition : f.body));
+				} else if (f.body == null && n <= f.head) {
+					f.head = n;
+					f.loop = true;
+				}
+				continue;
+			}
+			frames.pop();
+
+			if (f.body != null) {
+				// the component is complete, its head returns what its visit found
+				f.partition.add(0, new Element(f.v, f.body));
+				returned = f.head;
+			} else if (f.head == dfn.get(f.v)) {
+				dfn.put(f.v, Integer.MAX_VALUE);
+				Unit element = stack.pop();
+				if (f.loop) {
+					while (element != f.v) {
+						dfn.put(element, 0);
+						element = stack.pop();
+					}
+					frames.push(new Frame(f.v, f.partition, new ArrayList<Element>(), graph.getSuccsOf(f.v).iterator(),
+							f.head));
+				} else {
+					f.partition.add(0, new Element(f.v, null));
+					returned = f.head;
+				}
+			} else {
+				returned = f.head;
+			}
+		}
+	}
+
+	private Frame enter(Unit v, List<Element> partition) {
+		stack.push(v);
+		dfn.put(v, ++num);
+		return new Frame(v, partition, null, graph.getSuccsOf(v).iterator(), num);
+	}
+
+	void run() {
+		entry = analysis.entryInitialFlow();
+		for (Element e : order) {
+			stabilize(e);
+		}
+	}
+
+	private void stabilize(Element e) {
+		if (e.body == null) {
+			analysis.getFlowBefore(e.head).copy(input(e.head));
+			apply(e.head);
+			return;
+		}
+
+		components++;
+		AWrapper before = analysis.getFlowBefore(e.head);
+		for (int round = 0;; round++) {
+			AWrapper in = input(e.head);
+			// the body has been stabilised under a head state that already holds
+			if (round > 0 && in.equals(before)) {
+				break;
+			}
+			AWrapper next = analysis.emptyFlow();
+			analysis.combine(e.head, before, in, next, round >= wideningDelay);
+			before.copy(next);
+			rounds++;
+
+			apply(e.head);
+			for (Element inner : e.body) {
+				stabilize(inner);
+			}
+		}
+	}
+
+	/* The join of the states flowing into u, including the entry state at a head of the method. */
+	private AWrapper input(Unit u) {
+		AWrapper in = graph.getHeads().contains(u) ? entry : null;
+		for (Unit pred : graph.getPredsOf(u)) {
+			for (AWrapper flow : analysis.flowsInto(pred, u)) {
+				if (in == null) {
+					in = flow;
+				} else {
+					AWrapper joined = analysis.emptyFlow();
+					analysis.merge(in, flow, joined);
+					in = joined;
+				}
+			}
+		}
+		return in == null ? analysis.newInitialFlow() : in;
+	}
+
+	private void apply(Unit u) {
+		List<AWrapper> fallOut = new ArrayList<AWrapper>();
+		if (u.fallsThrough()) {
+			fallOut.add(analysis.getFallFlowAfter(u));
+		}
+		analysis.flowThrough(analysis.getFlowBefore(u), u, fallOut, analysis.getBranchFlowAfter(u));
+	}
+}